@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.benchmarks;
+
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.BlockHeader;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.block.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block hashing and serialization for blocks of {@link #entries} transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int entries;
+
+    private Block block;
+
+    @Setup
+    public void setUp() {
+        var transactions = new ArrayList<Blockable>(entries);
+        for(int i = 0; i < entries; i++) {
+            transactions.add(new Transaction(i, "sender" + i, "recipient" + i, i));
+        }
+        block = new Block("", transactions);
+    }
+
+    @Benchmark
+    public String getHash() {
+        return block.getHash();
+    }
+
+    @Benchmark
+    public String toJson() {
+        return block.toString();
+    }
+
+    @Benchmark
+    public byte[] header() {
+        return BlockHeader.of(block, 1, 0);
+    }
+
+}
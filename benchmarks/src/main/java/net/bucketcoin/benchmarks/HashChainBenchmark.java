@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.benchmarks;
+
+import net.bucketcoin.collections.HashChain;
+import net.bucketcoin.collections.HashChainBlock;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.NoSuchProviderException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HashChain} operations on chains of {@link #size} elements. {@link #add()} appends to a chain
+ * whose backing array is full, which is the common case with the default increment of one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HashChainBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private HashChain<String> chain;
+    private HashChainBlock last;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws NoSuchProviderException {
+        Core.initialize();
+        chain = new HashChain<>(1, size);
+        for(next = 0; next < size; next++) chain.add("element" + next);
+        last = chain.toBlockArray()[chain.size() - 1];
+    }
+
+    @Benchmark
+    public boolean add() {
+        return chain.add("element" + next++);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return chain.validate();
+    }
+
+    @Benchmark
+    public HashChainBlock calculateHash() {
+        return new HashChainBlock(last, "element");
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.benchmarks;
+
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.Transaction;
+import net.bucketcoin.node.Mempool;
+import net.bucketcoin.node.MempoolEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent {@link Mempool} ingestion. Every thread adds its own transactions and removes the ones it added
+ * {@link #WINDOW} operations earlier, so the pool stays at a steady size; compare the throughput
+ * across thread counts with <code>-t 1</code>, <code>-t 4</code>, <code>-t 16</code>. The <code>relay</code>
+ * benchmarks compare the cost of taking in a relayed transaction as a {@link MempoolEntry} with wrapping
+ * it in a {@link Block}, as the pool used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class MempoolBenchmark {
+
+    static final int WINDOW = 4096;
+
+    /**
+     * The number of senders each thread spreads its transactions over, each sending them in nonce order.
+     * Below <code>WINDOW / {@link Mempool#MAX_PARKED_PER_SENDER}</code>, most additions are rejected.
+     */
+    @Param({"256"})
+    public int senders;
+
+    @Setup
+    public void setUp() {
+        // the senders of a half start over from nonce 0 each time its entries come round again
+        Mempool.getInstance().setNonceSource(sender -> 0);
+    }
+
+    @State(Scope.Thread)
+    public static class Ingest {
+
+        private MempoolEntry[] entries;
+        private int next = 0;
+
+        /**
+         * Each half of the entries has its own senders, so that a half is removed entirely before it is added again.
+         */
+        @Setup
+        public void setUp(MempoolBenchmark benchmark) {
+            final String thread = Thread.currentThread().getName();
+            entries = new MempoolEntry[WINDOW * 2];
+            for(int i = 0; i < entries.length; i++) {
+                final String sender = thread + "-" + i / WINDOW + "-" + i % benchmark.senders;
+                final long nonce = i % WINDOW / benchmark.senders;
+                entries[i] = new MempoolEntry(new Transaction(1, sender, "recipient", i % 997, nonce));
+            }
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class Filled {
+
+        @Setup
+        public void setUp() {
+            for(int i = 0; i < WINDOW * 4; i++) {
+                Mempool.getInstance().addTransactionToPool(new Transaction(1, "sender" + i, "recipient", i % 997));
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            Mempool.getInstance().takeEntriesFromPool(Long.MAX_VALUE);
+        }
+
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        Mempool.getInstance().takeEntriesFromPool(Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public boolean addAndRemove(Ingest ingest) {
+        final MempoolEntry[] entries = ingest.entries;
+        final int i = ingest.next++ & (entries.length - 1);
+        Mempool.getInstance().removeEntryFromPool(entries[(i + WINDOW) & (entries.length - 1)]);
+        return Mempool.getInstance().addEntryToPool(entries[i]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public MempoolEntry relayAsEntry() {
+        return new MempoolEntry(new Transaction(1, "sender", "recipient", 10));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String relayAsBlock() {
+        return new Block("", new Transaction(1, "sender", "recipient", 10)).getHash();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int snapshot(Filled filled) {
+        return Mempool.getInstance().snapshot().size();
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.benchmarks;
+
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.BlockHeader;
+import net.bucketcoin.block.Transaction;
+import net.bucketcoin.pow.CancellationToken;
+import net.bucketcoin.pow.MiningEngine;
+import net.bucketcoin.pow.PowHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proof-of-work throughput. {@link #midstateHash()} and {@link #fullHash()} report hashes per second
+ * for a single thread, with and without the midstate; {@link #mine()} is the time the
+ * {@link MiningEngine} takes to find a nonce at {@link #difficulty}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MiningBenchmark {
+
+    @Param({"4"})
+    public long difficulty;
+
+    private byte[] header;
+    private PowHasher hasher;
+    private MessageDigest digest;
+    private MiningEngine engine;
+    private long nonce = 0;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        var block = new Block("", new Transaction(1, "sender", "recipient", 1));
+        header = BlockHeader.of(block, difficulty, 0);
+        hasher = new PowHasher(header, BlockHeader.NONCE_OFFSET);
+        digest = MessageDigest.getInstance(PowHasher.ALGORITHM);
+        engine = new MiningEngine();
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public byte[] midstateHash() {
+        return hasher.hash(nonce++);
+    }
+
+    @Benchmark
+    public byte[] fullHash() {
+        ByteBuffer.wrap(header).putLong(BlockHeader.NONCE_OFFSET, nonce++);
+        return digest.digest(header);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MiningEngine.Solution mine() throws InterruptedException {
+        // a different start every call, so the search does not find the same nonce again
+        nonce += MiningEngine.NONCE_SPACE >>> 8;
+        return engine.mine(header, BlockHeader.NONCE_OFFSET, nonce, difficulty, new CancellationToken());
+    }
+
+}
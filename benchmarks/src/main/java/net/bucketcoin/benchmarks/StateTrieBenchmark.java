@@ -0,0 +1,70 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.benchmarks;
+
+import net.bucketcoin.crypto.state.StateTrie;
+import net.bucketcoin.crypto.state.StorageTrie;
+import net.bucketcoin.p2p.Node;
+import net.bucketcoin.wallet.Wallet;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point reads and writes on the {@link StateTrie}, which is backed by LevelDB in the working directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateTrieBenchmark {
+
+    @Param({"10000"})
+    public int accounts;
+
+    private byte[][] addresses;
+    private StateTrie.AddressProperties properties;
+
+    @Setup
+    public void setUp() throws Exception {
+        Core.initialize();
+        Node.getInstance().init(new Wallet(), 0);
+        StateTrie.getInstance();
+        properties = new StateTrie.AddressProperties(0, 100, StorageTrie.getUserTrie().toHash(), null);
+        addresses = new byte[accounts][];
+        for(int i = 0; i < accounts; i++) {
+            var address = "benchmark-" + i;
+            addresses[i] = address.getBytes(StandardCharsets.ISO_8859_1);
+            StateTrie.addAccount(address, properties);
+        }
+    }
+
+    @Benchmark
+    public StateTrie.AddressProperties read() {
+        return StateTrie.queryAddress(addresses[ThreadLocalRandom.current().nextInt(accounts)]);
+    }
+
+    @Benchmark
+    public void write() {
+        StateTrie.addAccount("benchmark-" + ThreadLocalRandom.current().nextInt(accounts), properties);
+    }
+
+}
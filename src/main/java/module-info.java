@@ -16,10 +16,14 @@ module net.bucketcoin {
     exports net.bucketcoin.collections;
     exports net.bucketcoin.util;
     exports net.bucketcoin.networking;
+    exports net.bucketcoin.networking.stratum;
+    exports net.bucketcoin.pow;
 
     opens net.bucketcoin.block to com.google.gson;
     opens net.bucketcoin.message to com.google.gson;
     opens net.bucketcoin.networking to com.google.gson;
+    opens net.bucketcoin.collections to com.google.gson;
+    opens net.bucketcoin.crypto.state to com.google.gson;
 
     requires lombok;
     requires org.jetbrains.annotations;
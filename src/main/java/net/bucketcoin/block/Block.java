@@ -16,13 +16,28 @@
 
 package net.bucketcoin.block;
 
-import com.google.gson.GsonBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import lombok.Getter;
+import lombok.SneakyThrows;
 import net.bucketcoin.collections.IBlock;
-import org.apache.commons.codec.digest.DigestUtils;
+import net.bucketcoin.collections.MerkleProof;
+import net.bucketcoin.collections.MerkleTree;
+import net.bucketcoin.util.Amounts;
+import net.bucketcoin.util.CryptoResources;
+import net.bucketcoin.util.JsonResources;
+import org.apache.commons.codec.binary.Hex;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -32,18 +47,33 @@ import java.util.List;
 /**
  * An instance of a block for the miner.
  */
+@JsonAdapter(Block.GsonAdapter.class)
 public class Block implements Serializable, IBlock {
 
     @Getter
-    private final int nonce = Math.round(new SecureRandom().nextInt() * 694206942);
+    private long nonce = Math.round(new SecureRandom().nextInt() * 694206942);
+    @Getter
+    private long difficulty;
+    /**
+     * The memoized header hash, see {@link #getHash()}.
+     */
+    private transient volatile String hash;
+    /**
+     * The memoized tree over the entries, built with the {@link #getTransactionRoot() transaction root}, see {@link #getEntryProof(int)}.
+     */
+    private transient volatile MerkleTree entryTree;
 
-    @NotNull
+    @Getter @NotNull
     private final Timestamp timestamp; // the block timestamp
+    @Getter
     private final String prevHash; // parent hash
-    @Getter private double GasFee; // the gas fee to pay
+    @Getter private long GasFee; // the gas fee to pay
     private @NotNull List<Blockable> blockentries = new ArrayList<>(); // transactions to store
+    @Getter
     private String stateRoot;
+    @Getter
     private String storageRoot;
+    @Getter
     private String transactionRoot;
 
     public Blockable[] getBlockEntries() {
@@ -54,27 +84,189 @@ public class Block implements Serializable, IBlock {
         this.prevHash = prevHash;
         this.blockentries = transactions;
         timestamp = new Timestamp(System.currentTimeMillis());
+        transactionRoot = computeTransactionRoot();
+        GasFee = sumGasFees();
     }
 
     public Block(@NotNull String prevHash, @NotNull Blockable... transactions) {
         this.prevHash = prevHash;
         this.blockentries.addAll(Arrays.asList(transactions));
         timestamp = new Timestamp(System.currentTimeMillis());
+        transactionRoot = computeTransactionRoot();
+        GasFee = sumGasFees();
+    }
+
+    /**
+     * Restores a {@linkplain BlockCodec#decodeBlock(java.nio.ByteBuffer) decoded} block. The transaction root and
+     * the gas fees are computed again from the entries.
+     */
+    Block(String prevHash, @NotNull List<Blockable> entries, @NotNull Timestamp timestamp, long difficulty, long nonce,
+          String stateRoot, String storageRoot) {
+        this.prevHash = prevHash;
+        this.blockentries = entries;
+        this.timestamp = timestamp;
+        this.difficulty = difficulty;
+        this.nonce = nonce;
+        this.stateRoot = stateRoot;
+        this.storageRoot = storageRoot;
+        transactionRoot = computeTransactionRoot();
+        GasFee = sumGasFees();
     }
 
-    {
-        for(Blockable b : getBlockEntries()) GasFee += b.getGasFee();
+    /**
+     * Seals the block with the nonce that solves it, and computes its hash once.
+     * @param difficulty The difficulty the block was mined at.
+     * @param nonce The winning nonce.
+     */
+    public void seal(long difficulty, long nonce) {
+        this.difficulty = difficulty;
+        this.nonce = nonce;
+        this.hash = hashHeader();
     }
 
+    /**
+     * Returns the SHA-256 hash of the {@link BlockHeader} in a hexadecimal string. The hash is
+     * computed once, when the block is {@linkplain #seal(long, long) sealed} or first asked for.
+     */
+    @Override
     public String getHash() {
-        var a = new GsonBuilder().create();
-        var b = a.toJson(this, Block.class);
-        return DigestUtils.shaHex(b);
+        var h = hash;
+        if(h == null) hash = h = hashHeader();
+        return h;
+    }
+
+    @SneakyThrows
+    private String hashHeader() {
+        var digest = MessageDigest.getInstance(CryptoResources.HASH_ALGORITHM);
+        return new String(Hex.encodeHex(digest.digest(BlockHeader.of(this, difficulty, nonce))));
+    }
+
+    /**
+     * Creates the proof that the entry at <i>index</i> is part of this block's {@link #getTransactionRoot() transaction root},
+     * for clients that check a single entry with {@link #verifyEntry(Blockable, MerkleProof, String)}.
+     * @param index The entry index in {@link #getBlockEntries()}.
+     * @return The proof.
+     * @throws IndexOutOfBoundsException if there is no entry at <i>index</i>.
+     */
+    public @NotNull MerkleProof getEntryProof(int index) {
+        return entryTree().proof(index);
+    }
+
+    /**
+     * Checks that an entry is part of a block without the block itself.
+     * @param entry The entry.
+     * @param proof The proof from {@link #getEntryProof(int)}.
+     * @param transactionRoot The block's {@link #getTransactionRoot() transaction root}.
+     * @return Whether the entry is part of the block.
+     */
+    @SneakyThrows
+    public static boolean verifyEntry(@NotNull Blockable entry, @NotNull MerkleProof proof, @NotNull String transactionRoot) {
+        return proof.verify(encodeEntry(entry), Hex.decodeHex(transactionRoot.toCharArray()));
+    }
+
+    /**
+     * The {@link MerkleTree} root over the {@linkplain BlockCodec binary form} of every entry, in a hexadecimal string.
+     * Leaves of large blocks are encoded and hashed in parallel.
+     */
+    private String computeTransactionRoot() {
+        final var tree = MerkleTree.of(blockentries, Block::encodeEntry);
+        entryTree = tree;
+        return new String(Hex.encodeHex(tree.getRoot()));
+    }
+
+    /**
+     * Returns the tree the transaction root was computed from. It is built again only if the block was deserialized,
+     * as the tree is not serialized with it.
+     */
+    private MerkleTree entryTree() {
+        var t = entryTree;
+        if(t == null) entryTree = t = MerkleTree.of(blockentries, Block::encodeEntry);
+        return t;
+    }
+
+    /**
+     * @throws ArithmeticException if the gas fees overflow.
+     */
+    private long sumGasFees() {
+        long sum = 0;
+        for(Blockable b : blockentries) sum = Amounts.add(sum, b.getGasFee());
+        return sum;
+    }
+
+    private static byte[] encodeEntry(Blockable entry) {
+        return BlockCodec.toBytes(entry);
     }
 
     @Override
     public String toString() {
-        var a = new GsonBuilder().create();
-        return a.toJson(this, Block.class);
+        return JsonResources.getGson().toJson(this, Block.class);
+    }
+
+    /**
+     * Encodes a block as its fields, with the timestamp in milliseconds since the epoch. Decoding computes the
+     * transaction root and the gas fees again from the entries, and checks the root against the one recorded.
+     */
+    static final class GsonAdapter implements TypeAdapterFactory {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(type.getRawType() != Block.class) return null;
+            final TypeAdapter<Blockable> entries = gson.getAdapter(Blockable.class);
+            return (TypeAdapter<T>) new TypeAdapter<Block>() {
+
+                @Override
+                public void write(JsonWriter out, Block value) throws IOException {
+                    out.beginObject();
+                    out.name("nonce").value(value.nonce);
+                    out.name("difficulty").value(value.difficulty);
+                    out.name("timestamp").value(value.timestamp.getTime());
+                    out.name("prevHash").value(value.prevHash);
+                    out.name("GasFee").value(value.GasFee);
+                    out.name("blockentries").beginArray();
+                    for(Blockable b : value.blockentries) entries.write(out, b);
+                    out.endArray();
+                    out.name("stateRoot").value(value.stateRoot);
+                    out.name("storageRoot").value(value.storageRoot);
+                    out.name("transactionRoot").value(value.transactionRoot);
+                    out.endObject();
+                }
+
+                @Override
+                public Block read(JsonReader in) throws IOException {
+                    long nonce = 0, difficulty = 0;
+                    Timestamp timestamp = null;
+                    String prevHash = null, stateRoot = null, storageRoot = null, transactionRoot = null;
+                    final List<Blockable> blockentries = new ArrayList<>();
+                    in.beginObject();
+                    while(in.hasNext()) {
+                        switch(in.nextName()) {
+                            case "nonce" -> nonce = in.nextLong();
+                            case "difficulty" -> difficulty = in.nextLong();
+                            case "timestamp" -> timestamp = new Timestamp(in.nextLong());
+                            case "prevHash" -> prevHash = JsonResources.nextString(in);
+                            case "blockentries" -> {
+                                in.beginArray();
+                                while(in.hasNext()) blockentries.add(entries.read(in));
+                                in.endArray();
+                            }
+                            case "stateRoot" -> stateRoot = JsonResources.nextString(in);
+                            case "storageRoot" -> storageRoot = JsonResources.nextString(in);
+                            case "transactionRoot" -> transactionRoot = JsonResources.nextString(in);
+                            default -> in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    if(timestamp == null) throw new JsonParseException("Block has no timestamp");
+                    final var block = new Block(prevHash, blockentries, timestamp, difficulty, nonce, stateRoot, storageRoot);
+                    if(transactionRoot != null && !transactionRoot.equals(block.transactionRoot)) {
+                        throw new JsonParseException("Block has a wrong transaction root");
+                    }
+                    return block;
+                }
+
+            };
+        }
+
     }
 }
@@ -0,0 +1,474 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.block;
+
+import net.bucketcoin.pow.DifficultyAlgorithm;
+import net.bucketcoin.util.ByteBufferPool;
+import net.bucketcoin.util.JsonResources;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The binary encoding of {@link Block}s and their entries, for the wire and for disk. It is several times
+ * smaller than JSON and needs no reflection: amounts are fixed-width, counts and lengths are varints, and
+ * hexadecimal hashes and keys are stored as their raw bytes.
+ * <pre>
+ * record = version:u8 entry
+ * entry  = type:u8 length:varint body
+ * TRANSACTION = bckt:i64 sender recipient gasFee:i64 nonce:zigzag-varint [signature]
+ * TRADE       = count:varint item* count:varint item* sender recipient gasFee:i64
+ * BLOCK       = timestamp:i64 difficulty:varint nonce:i64 prevHash transactionRoot stateRoot storageRoot count:varint entry*
+ * OPAQUE      = json:utf8-bytes
+ * string = header:varint bytes   (header 0 is null, otherwise (length &lt;&lt; 1 | hex) + 1)
+ * item   = NULL | INTEGER zigzag-varint | DECIMAL scale:zigzag-varint unscaled | STRING string | TRUE | FALSE | JSON string
+ * unscaled = length:varint two's-complement-bytes
+ * </pre>
+ * A string flagged <i>hex</i> is lowercase hexadecimal, stored as the bytes it spells. The signature of a transaction
+ * is only written if it has one, so an unsigned transaction ends at its nonce. Fixed-width integers are big-endian.
+ * Trade items that are whole numbers and fit a <code>long</code> are stored as an {@link #ITEM_INTEGER} and read back as
+ * {@link Long}s; every other number is stored exactly as a {@link BigDecimal} and read back as one.
+ * Entries other than {@link Transaction}s and {@link Trade}s are stored as their JSON form in an {@link #OPAQUE} entry,
+ * which can be hashed and measured but not decoded.
+ * <br><br>
+ * Amounts are in {@linkplain net.bucketcoin.util.Amounts base units}.
+ * <br><br>
+ * Encoding writes into pooled buffers and decoding reads straight from the buffer it is given.
+ */
+public final class BlockCodec {
+
+    public static final byte VERSION = 1;
+
+    public static final byte TRANSACTION = 1;
+    public static final byte TRADE = 2;
+    public static final byte BLOCK = 3;
+    public static final byte OPAQUE = 4;
+
+    private static final byte ITEM_NULL = 0;
+    private static final byte ITEM_INTEGER = 1;
+    private static final byte ITEM_STRING = 2;
+    private static final byte ITEM_TRUE = 3;
+    private static final byte ITEM_FALSE = 4;
+    private static final byte ITEM_JSON = 5;
+    private static final byte ITEM_DECIMAL = 6;
+
+    /**
+     * Room kept for the length of an entry while its body is written, which is the longest varint of an <code>int</code>.
+     */
+    private static final int LENGTH_ROOM = 5;
+
+    private static final ByteBufferPool BUFFERS = new ByteBufferPool(64 * 1024, 256);
+
+    private BlockCodec() {
+        //no instance
+    }
+
+    /**
+     * Encodes a block into a new array.
+     * @param block The block.
+     * @return The record.
+     */
+    @Contract("_ -> new")
+    public static byte @NotNull [] toBytes(@NotNull Block block) {
+        return BUFFERS.write(b -> {
+            encode(block, b);
+            return Arrays.copyOf(b.array(), b.position());
+        });
+    }
+
+    /**
+     * Encodes a block entry into a new array.
+     * @param entry The entry.
+     * @return The record.
+     */
+    @Contract("_ -> new")
+    public static byte @NotNull [] toBytes(@NotNull Blockable entry) {
+        return BUFFERS.write(b -> {
+            encode(entry, b);
+            return Arrays.copyOf(b.array(), b.position());
+        });
+    }
+
+    /**
+     * @param entry A block entry.
+     * @return The length of its record in bytes.
+     */
+    public static int sizeOf(@NotNull Blockable entry) {
+        return BUFFERS.write(b -> {
+            encode(entry, b);
+            return b.position();
+        });
+    }
+
+    /**
+     * Writes the record of a block at the position of <i>out</i>.
+     * @throws java.nio.BufferOverflowException if <i>out</i> is too small; its position is then undefined.
+     */
+    public static void encode(@NotNull Block block, @NotNull ByteBuffer out) {
+        out.put(VERSION);
+        writeBlock(block, out);
+    }
+
+    /**
+     * Writes the record of a block entry at the position of <i>out</i>.
+     * @throws java.nio.BufferOverflowException if <i>out</i> is too small; its position is then undefined.
+     */
+    public static void encode(@NotNull Blockable entry, @NotNull ByteBuffer out) {
+        out.put(VERSION);
+        writeEntry(entry, out);
+    }
+
+    /**
+     * Reads the record of a block from the position of <i>in</i>. The transaction root is computed again
+     * from the entries and checked against the one recorded.
+     * @return The block.
+     * @throws IllegalArgumentException if the record is malformed, of another version or type, or its transaction root does not match.
+     */
+    public static @NotNull Block decodeBlock(@NotNull ByteBuffer in) {
+        try {
+            readVersion(in);
+            final byte type = in.get();
+            if(type != BLOCK) throw new IllegalArgumentException("Not a block record : " + type);
+            return readBlock(body(in));
+        } catch(BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated block record", e);
+        }
+    }
+
+    /**
+     * Reads the record of a block entry from the position of <i>in</i>.
+     * @return The entry.
+     * @throws IllegalArgumentException if the record is malformed, of another version, or {@link #OPAQUE}.
+     */
+    public static @NotNull Blockable decodeEntry(@NotNull ByteBuffer in) {
+        try {
+            readVersion(in);
+            return readEntry(in);
+        } catch(BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated entry record", e);
+        }
+    }
+
+    private static void readVersion(ByteBuffer in) {
+        final byte version = in.get();
+        if(version != VERSION) throw new IllegalArgumentException("Unsupported codec version " + version);
+    }
+
+    private static void writeBlock(Block block, ByteBuffer out) {
+        out.put(BLOCK);
+        final int start = beginBody(out);
+        out.putLong(block.getTimestamp().getTime());
+        writeVarLong(out, block.getDifficulty());
+        out.putLong(block.getNonce());
+        writeString(out, block.getPrevHash());
+        writeString(out, block.getTransactionRoot());
+        writeString(out, block.getStateRoot());
+        writeString(out, block.getStorageRoot());
+        final Blockable[] entries = block.getBlockEntries();
+        writeVarLong(out, entries.length);
+        for(Blockable b : entries) writeEntry(b, out);
+        endBody(out, start);
+    }
+
+    private static Block readBlock(ByteBuffer in) {
+        final var timestamp = new Timestamp(in.getLong());
+        final long difficulty = readVarLong(in);
+        if(!DifficultyAlgorithm.isValid(difficulty)) throw new IllegalArgumentException("Block record has an invalid difficulty : " + difficulty);
+        final long nonce = in.getLong();
+        final String prevHash = readString(in);
+        final String transactionRoot = readString(in);
+        final String stateRoot = readString(in);
+        final String storageRoot = readString(in);
+        final int count = readLength(in);
+        final List<Blockable> entries = new ArrayList<>(Math.min(count, in.remaining()));
+        for(int i = 0; i < count; i++) entries.add(readEntry(in));
+        final var block = new Block(prevHash, entries, timestamp, difficulty, nonce, stateRoot, storageRoot);
+        if(transactionRoot != null && !transactionRoot.equals(block.getTransactionRoot())) {
+            throw new IllegalArgumentException("Block record has a wrong transaction root");
+        }
+        return block;
+    }
+
+    private static void writeEntry(Blockable entry, ByteBuffer out) {
+        if(entry instanceof Transaction t) {
+            out.put(TRANSACTION);
+            final int start = beginBody(out);
+            out.putLong(t.getBckt());
+            writeString(out, t.getSender());
+            writeString(out, t.getRecipient());
+            out.putLong(t.getGasFee());
+            writeVarLong(out, zigZag(t.getNonce()));
+            if(t.getSignature() != null) writeString(out, t.getSignature());
+            endBody(out, start);
+        } else if(entry instanceof Trade t) {
+            out.put(TRADE);
+            final int start = beginBody(out);
+            writeItems(out, t.getToSend());
+            writeItems(out, t.getToGet());
+            writeString(out, t.getSender());
+            writeString(out, t.getRecipient());
+            out.putLong(t.getGasFee());
+            endBody(out, start);
+        } else {
+            out.put(OPAQUE);
+            final int start = beginBody(out);
+            out.put(entry.toString().getBytes(StandardCharsets.UTF_8));
+            endBody(out, start);
+        }
+    }
+
+    private static Blockable readEntry(ByteBuffer in) {
+        final byte type = in.get();
+        final ByteBuffer body = body(in);
+        return switch(type) {
+            case TRANSACTION -> new Transaction(body.getLong(), readString(body), readString(body), body.getLong(),
+                    unZigZag(readVarLong(body)), body.hasRemaining() ? readString(body) : null);
+            case TRADE -> {
+                final List<Object> toSend = readItems(body);
+                final List<Object> toGet = readItems(body);
+                yield new Trade(toSend, toGet, readString(body), readString(body), body.getLong());
+            }
+            case OPAQUE -> throw new IllegalArgumentException("Opaque entries cannot be decoded");
+            default -> throw new IllegalArgumentException("Unknown entry type " + type);
+        };
+    }
+
+    private static void writeItems(ByteBuffer out, List<?> items) {
+        writeVarLong(out, items.size());
+        for(Object o : items) {
+            if(o == null) {
+                out.put(ITEM_NULL);
+            } else if(o instanceof Number n) {
+                writeNumber(out, n);
+            } else if(o instanceof String s) {
+                out.put(ITEM_STRING);
+                writeString(out, s);
+            } else if(o instanceof Boolean b) {
+                out.put(b ? ITEM_TRUE : ITEM_FALSE);
+            } else {
+                out.put(ITEM_JSON);
+                writeString(out, JsonResources.getGson().toJson(o));
+            }
+        }
+    }
+
+    private static List<Object> readItems(ByteBuffer in) {
+        final int count = readLength(in);
+        final List<Object> items = new ArrayList<>(Math.min(count, in.remaining()));
+        for(int i = 0; i < count; i++) {
+            final byte tag = in.get();
+            items.add(switch(tag) {
+                case ITEM_NULL -> null;
+                case ITEM_INTEGER -> unZigZag(readVarLong(in));
+                case ITEM_DECIMAL -> readDecimal(in);
+                case ITEM_STRING -> readString(in);
+                case ITEM_TRUE -> Boolean.TRUE;
+                case ITEM_FALSE -> Boolean.FALSE;
+                case ITEM_JSON -> JsonResources.parseValue(readString(in));
+                default -> throw new IllegalArgumentException("Unknown trade item " + tag);
+            });
+        }
+        return items;
+    }
+
+    private static void writeNumber(ByteBuffer out, Number n) {
+        if(n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) {
+            out.put(ITEM_INTEGER);
+            writeVarLong(out, zigZag(n.longValue()));
+            return;
+        }
+        final BigDecimal d = toBigDecimal(n);
+        if(d.scale() == 0 && d.unscaledValue().bitLength() < Long.SIZE) {
+            out.put(ITEM_INTEGER);
+            writeVarLong(out, zigZag(d.longValue()));
+            return;
+        }
+        final byte[] unscaled = d.unscaledValue().toByteArray();
+        out.put(ITEM_DECIMAL);
+        writeVarLong(out, zigZag(d.scale()));
+        writeVarLong(out, unscaled.length);
+        out.put(unscaled);
+    }
+
+    private static BigDecimal toBigDecimal(Number n) {
+        if(n instanceof BigDecimal d) return d;
+        if(n instanceof BigInteger i) return new BigDecimal(i);
+        if(n instanceof Double || n instanceof Float) {
+            final double d = n.doubleValue();
+            if(!Double.isFinite(d)) throw new IllegalArgumentException("Trade item " + n + " is not a finite number");
+            return n instanceof Float ? new BigDecimal(n.toString()) : BigDecimal.valueOf(d);
+        }
+        try {
+            return new BigDecimal(n.toString());
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Trade item " + n + " is not a number", e);
+        }
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer in) {
+        final long scale = unZigZag(readVarLong(in));
+        if(scale < Integer.MIN_VALUE || scale > Integer.MAX_VALUE) throw new IllegalArgumentException("Malformed scale " + scale);
+        final int length = readLength(in);
+        if(length == 0) throw new IllegalArgumentException("Malformed decimal");
+        if(length > in.remaining()) throw new BufferUnderflowException();
+        final byte[] unscaled = new byte[length];
+        in.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), (int) scale);
+    }
+
+    /**
+     * Leaves room for the length of a body, which is written by {@link #endBody(ByteBuffer, int)} once it is known.
+     * @return Where the body starts.
+     */
+    private static int beginBody(ByteBuffer out) {
+        if(out.remaining() < LENGTH_ROOM) throw new BufferOverflowException();
+        out.position(out.position() + LENGTH_ROOM);
+        return out.position();
+    }
+
+    /**
+     * Writes the length of the body that started at <i>start</i> in front of it, and moves the body next to it.
+     */
+    private static void endBody(ByteBuffer out, int start) {
+        final int length = out.position() - start;
+        final int lengthAt = start - LENGTH_ROOM;
+        out.position(lengthAt);
+        writeVarLong(out, length);
+        final int bodyAt = out.position();
+        if(bodyAt != start) {
+            if(out.hasArray()) {
+                System.arraycopy(out.array(), out.arrayOffset() + start, out.array(), out.arrayOffset() + bodyAt, length);
+            } else {
+                final byte[] body = new byte[length];
+                out.get(start, body);
+                out.put(bodyAt, body);
+            }
+        }
+        out.position(bodyAt + length);
+    }
+
+    /**
+     * Reads the length of a body and returns a view of it, moving <i>in</i> past it.
+     */
+    private static ByteBuffer body(ByteBuffer in) {
+        final int length = readLength(in);
+        if(length > in.remaining()) throw new BufferUnderflowException();
+        final ByteBuffer body = in.slice(in.position(), length);
+        in.position(in.position() + length);
+        return body;
+    }
+
+    private static void writeString(ByteBuffer out, @Nullable String s) {
+        if(s == null) {
+            out.put((byte) 0);
+            return;
+        }
+        if(isLowerHex(s)) {
+            writeVarLong(out, ((long) (s.length() / 2) << 1 | 1) + 1);
+            for(int i = 0; i < s.length(); i += 2) {
+                out.put((byte) (Character.digit(s.charAt(i), 16) << 4 | Character.digit(s.charAt(i + 1), 16)));
+            }
+            return;
+        }
+        final byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, ((long) b.length << 1) + 1);
+        out.put(b);
+    }
+
+    private static @Nullable String readString(ByteBuffer in) {
+        final long header = readVarLong(in);
+        if(header == 0) return null;
+        final long length = (header - 1) >>> 1;
+        if(length > in.remaining()) throw new BufferUnderflowException();
+        final int n = (int) length;
+        if(((header - 1) & 1) == 1) {
+            final byte[] b = new byte[n];
+            in.get(b);
+            return new String(Hex.encodeHex(b));
+        }
+        final String s;
+        if(in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+            in.position(in.position() + n);
+        } else {
+            final byte[] b = new byte[n];
+            in.get(b);
+            s = new String(b, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    /**
+     * Whether a string is a non-empty, even-length, lowercase hexadecimal string, which is how hashes are written.
+     */
+    private static boolean isLowerHex(String s) {
+        if(s.isEmpty() || (s.length() & 1) == 1) return false;
+        for(int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint: seven bits per byte, lowest first, with the high bit set on every byte but the last.
+     */
+    static void writeVarLong(ByteBuffer out, long v) {
+        while((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if(b >= 0) return v;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int readLength(ByteBuffer in) {
+        final long length = readVarLong(in);
+        if(length < 0 || length > Integer.MAX_VALUE) throw new IllegalArgumentException("Malformed length " + length);
+        return (int) length;
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.block;
+
+import lombok.SneakyThrows;
+import net.bucketcoin.pow.DifficultyAlgorithm;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * The fixed binary layout of a {@link Block} header, which is what proof-of-work hashes.
+ * <pre>
+ * offset  size  field
+ *      0     4  version
+ *      4    32  prevHash
+ *     36    32  transactionRoot
+ *     68    32  stateRoot
+ *    100    32  storageRoot
+ *    132     8  timestamp (epoch millis)
+ *    140     4  difficulty
+ *    144     8  nonce
+ * </pre>
+ * The first {@link #MIDSTATE_LENGTH} bytes are two full 64-byte compression blocks that do not
+ * change between nonces, and the 24-byte tail holding the nonce fits in the final compression
+ * block together with the digest padding.
+ * All integers are big-endian.
+ */
+public final class BlockHeader {
+
+    public static final int VERSION = 1;
+    public static final int HASH_LENGTH = 32;
+
+    public static final int PREV_HASH_OFFSET = 4;
+    public static final int TRANSACTION_ROOT_OFFSET = PREV_HASH_OFFSET + HASH_LENGTH;
+    public static final int STATE_ROOT_OFFSET = TRANSACTION_ROOT_OFFSET + HASH_LENGTH;
+    public static final int STORAGE_ROOT_OFFSET = STATE_ROOT_OFFSET + HASH_LENGTH;
+    public static final int TIMESTAMP_OFFSET = STORAGE_ROOT_OFFSET + HASH_LENGTH;
+    public static final int DIFFICULTY_OFFSET = TIMESTAMP_OFFSET + Long.BYTES;
+    public static final int NONCE_OFFSET = DIFFICULTY_OFFSET + Integer.BYTES;
+    public static final int LENGTH = NONCE_OFFSET + Long.BYTES;
+
+    /**
+     * The length of the header prefix whose digest state can be computed once per template.
+     */
+    public static final int MIDSTATE_LENGTH = 128;
+
+    private BlockHeader() {
+        //no instance
+    }
+
+    /**
+     * Lays out the header of a block.
+     * @param block The block.
+     * @param difficulty The difficulty the block is mined at.
+     * @param nonce The nonce.
+     * @return The header bytes, {@link #LENGTH} long.
+     * @throws IllegalArgumentException if the difficulty is not {@linkplain DifficultyAlgorithm#isValid(long) valid}.
+     */
+    @Contract("_, _, _ -> new")
+    public static byte @NotNull [] of(@NotNull Block block, long difficulty, long nonce) {
+        return ByteBuffer.allocate(LENGTH)
+                .putInt(VERSION)
+                .put(toHashBytes(block.getPrevHash()))
+                .put(toHashBytes(block.getTransactionRoot()))
+                .put(toHashBytes(block.getStateRoot()))
+                .put(toHashBytes(block.getStorageRoot()))
+                .putLong(block.getTimestamp().getTime())
+                .putInt((int) DifficultyAlgorithm.checkDifficulty(difficulty))
+                .putLong(nonce)
+                .array();
+    }
+
+    /**
+     * Converts a hash field into its 32-byte header form. Hexadecimal hashes are decoded
+     * and zero-padded; an absent hash is all zeroes, and anything else is hashed with SHA-256.
+     */
+    @SneakyThrows
+    static byte @NotNull [] toHashBytes(@Nullable String hash) {
+        if(hash == null || hash.isEmpty()) return new byte[HASH_LENGTH];
+        if(hash.length() <= HASH_LENGTH * 2 && (hash.length() & 1) == 0) {
+            try {
+                var out = new byte[HASH_LENGTH];
+                var decoded = Hex.decodeHex(hash.toCharArray());
+                System.arraycopy(decoded, 0, out, 0, decoded.length);
+                return out;
+            } catch(DecoderException ignored) {
+                // not hexadecimal
+            }
+        }
+        return MessageDigest.getInstance("SHA-256").digest(hash.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+}
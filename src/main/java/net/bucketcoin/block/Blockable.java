@@ -16,21 +16,72 @@
 
 package net.bucketcoin.block;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
  *  An interface to mark objects that can be put in blocks.
  */
+@JsonAdapter(Blockable.GsonAdapter.class)
 public interface Blockable extends Serializable {
 
     /**
-     * Returns the gas fee in 0.000001 BCKT.
+     * Returns the gas fee in 0.000001 BCKT, the {@linkplain net.bucketcoin.util.Amounts base unit}.
      */
-    double getGasFee();
+    long getGasFee();
 
     /**
      * Converts the {@linkplain Blockable} into a JSON string.
      */
     String toString();
 
+    /**
+     * Encodes entries as their own type, and entries of other types as their {@link #toString()}. Entries are
+     * decoded as a {@link Trade} if they have items to send, and as a {@link Transaction} otherwise; since the type
+     * is only known once the fields have been seen, the entry is read as a tree first.
+     */
+    final class GsonAdapter implements TypeAdapterFactory {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(type.getRawType() != Blockable.class) return null;
+            final TypeAdapter<Transaction> transactions = gson.getAdapter(Transaction.class);
+            final TypeAdapter<Trade> trades = gson.getAdapter(Trade.class);
+            final TypeAdapter<JsonElement> trees = gson.getAdapter(JsonElement.class);
+            return (TypeAdapter<T>) new TypeAdapter<Blockable>() {
+
+                @Override
+                public void write(JsonWriter out, Blockable value) throws IOException {
+                    if(value instanceof Transaction t) transactions.write(out, t);
+                    else if(value instanceof Trade t) trades.write(out, t);
+                    else out.jsonValue(value.toString());
+                }
+
+                @Override
+                public Blockable read(JsonReader in) throws IOException {
+                    final JsonElement tree = trees.read(in);
+                    if(!tree.isJsonObject()) throw new JsonParseException("Block entry is not an object : " + tree);
+                    final JsonObject o = tree.getAsJsonObject();
+                    if(o.has("toSend")) return trades.fromJsonTree(o);
+                    if(o.has("bckt")) return transactions.fromJsonTree(o);
+                    throw new JsonParseException("Unknown block entry : " + o);
+                }
+
+            };
+        }
+
+    }
+
 }
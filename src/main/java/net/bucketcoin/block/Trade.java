@@ -16,15 +16,28 @@
 
 package net.bucketcoin.block;
 
-import com.google.gson.GsonBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import lombok.Getter;
 import net.bucketcoin.message.Message;
+import net.bucketcoin.util.Amounts;
+import net.bucketcoin.util.JsonResources;
 import net.bucketcoin.wallet.Wallet;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
+@JsonAdapter(Trade.GsonAdapter.class)
 public class Trade implements Serializable, Blockable {
 
     @Getter
@@ -34,24 +47,97 @@ public class Trade implements Serializable, Blockable {
     @Getter
     private final String recipient;
     @Getter
-    private final double GasFee;
+    private final long GasFee;
 
     /**
-     * @see Message#Message(Wallet, List, List, double)
+     * @param gas_fee The gas fee, in {@linkplain Amounts base units}.
+     * @throws IllegalArgumentException if the gas fee is negative.
+     * @see Message#Message(Wallet, List, List, long)
      */
-    public Trade(@NotNull List<?> toSend, @NotNull List<?> toGet, String sender, String recipient, double gas_fee) {
+    public Trade(@NotNull List<?> toSend, @NotNull List<?> toGet, String sender, String recipient, long gas_fee) {
         this.toSend = toSend;
         this.toGet = toGet;
         this.sender = sender;
         this.recipient = recipient;
-        this.GasFee = gas_fee;
+        this.GasFee = Amounts.requireValid(gas_fee);
     }
 
-
     @Override
     public String toString() {
-        var g = new GsonBuilder().create();
-        return g.toJson(this, Transaction.class);
+        return JsonResources.getGson().toJson(this, Trade.class);
+    }
+
+    /**
+     * Encodes a trade as <code>{"toSend", "toGet", "sender", "recipient", "GasFee"}</code>, the fields in order.
+     * The items are encoded as their runtime type and decoded as {@linkplain JsonResources#readValue plain values}.
+     */
+    static final class GsonAdapter implements TypeAdapterFactory {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if(type.getRawType() != Trade.class) return null;
+            final TypeAdapter<Object> items = gson.getAdapter(Object.class);
+            return (TypeAdapter<T>) new TypeAdapter<Trade>() {
+
+                @Override
+                public void write(JsonWriter out, Trade value) throws IOException {
+                    out.beginObject();
+                    out.name("toSend");
+                    writeItems(out, value.toSend);
+                    out.name("toGet");
+                    writeItems(out, value.toGet);
+                    out.name("sender").value(value.sender);
+                    out.name("recipient").value(value.recipient);
+                    out.name("GasFee").value(value.GasFee);
+                    out.endObject();
+                }
+
+                @Override
+                public Trade read(JsonReader in) throws IOException {
+                    List<Object> toSend = List.of(), toGet = List.of();
+                    String sender = null, recipient = null;
+                    long gasFee = 0;
+                    in.beginObject();
+                    while(in.hasNext()) {
+                        switch(in.nextName()) {
+                            case "toSend" -> toSend = readItems(in);
+                            case "toGet" -> toGet = readItems(in);
+                            case "sender" -> sender = JsonResources.nextString(in);
+                            case "recipient" -> recipient = JsonResources.nextString(in);
+                            case "GasFee" -> gasFee = in.nextLong();
+                            default -> in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    try {
+                        return new Trade(toSend, toGet, sender, recipient, gasFee);
+                    } catch(IllegalArgumentException e) {
+                        throw new JsonSyntaxException(e);
+                    }
+                }
+
+                private void writeItems(JsonWriter out, List<?> list) throws IOException {
+                    out.beginArray();
+                    for(Object o : list) items.write(out, o);
+                    out.endArray();
+                }
+
+                private List<Object> readItems(JsonReader in) throws IOException {
+                    final List<Object> list = new ArrayList<>();
+                    if(in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        return list;
+                    }
+                    in.beginArray();
+                    while(in.hasNext()) list.add(JsonResources.readValue(in));
+                    in.endArray();
+                    return list;
+                }
+
+            };
+        }
+
     }
 
 }
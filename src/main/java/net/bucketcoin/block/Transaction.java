@@ -18,39 +18,191 @@ package net.bucketcoin.block;
 
 import lombok.Getter;
 
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import net.bucketcoin.message.Message;
+import net.bucketcoin.util.Amounts;
+import net.bucketcoin.util.CryptoResources;
+import net.bucketcoin.util.JsonResources;
+import net.bucketcoin.util.SignatureVerifier;
 import net.bucketcoin.wallet.Wallet;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+import java.security.SignatureException;
 
+@JsonAdapter(Transaction.GsonAdapter.class)
 public class Transaction implements Serializable, Blockable {
 
+    /**
+     * The amount transferred, in {@linkplain Amounts base units}.
+     */
     @Getter
-    private final double bckt;
+    private final long bckt;
     @Getter
     private final String sender;
     @Getter
     private final String recipient;
     @Getter
-    private final double GasFee;
+    private final long GasFee;
+    /**
+     * The number of transactions the sender sent before this one, or {@link #NO_NONCE}.
+     */
+    @Getter
+    private final long nonce;
+    /**
+     * The sender's signature in hexadecimal, or <code>null</code> if the transaction is not signed, as rewards are not.
+     */
+    @Getter
+    private final @Nullable String signature;
+
+    /**
+     * The nonce of transactions that are not ordered among their sender's transactions, such as rewards.
+     */
+    public static final long NO_NONCE = -1;
+
+    private transient volatile String json;
+
+    /**
+     * Creates a transaction without a nonce.
+     * @see Message#Message(Wallet, long, long)
+     */
+    public Transaction(long bckt, String sender, String recipient, long gas_fee) {
+        this(bckt, sender, recipient, gas_fee, NO_NONCE);
+    }
 
     /**
-     * @see Message#Message(Wallet, Wallet, double, double)
+     * @param bckt The amount transferred, in {@linkplain Amounts base units}.
+     * @param gas_fee The gas fee, in base units.
+     * @param nonce The number of transactions the sender sent before this one.
+     * @throws IllegalArgumentException if an amount is negative.
+     * @see Message#Message(Wallet, long, long)
      */
-    public Transaction(double bckt, String sender, String recipient, double gas_fee) {
-        this.bckt = bckt;
+    public Transaction(long bckt, String sender, String recipient, long gas_fee, long nonce) {
+        this(bckt, sender, recipient, gas_fee, nonce, null);
+    }
+
+    /**
+     * @param signature The sender's signature over the {@linkplain #getSigningBytes() signing bytes}, in hexadecimal.
+     * @see #sign(PrivateKey)
+     */
+    public Transaction(long bckt, String sender, String recipient, long gas_fee, long nonce, @Nullable String signature) {
+        this.bckt = Amounts.requireValid(bckt);
         this.sender = sender;
         this.recipient = recipient;
-        this.GasFee = gas_fee;
+        this.GasFee = Amounts.requireValid(gas_fee);
+        this.nonce = nonce;
+        this.signature = signature;
     }
 
     /**
-     * Returns a JSON representation of this {@linkplain Transaction}
+     * Returns what the sender signs, the {@linkplain BlockCodec binary form} of this transaction without its signature.
+     */
+    public byte @NotNull [] getSigningBytes() {
+        return BlockCodec.toBytes(signature == null ? this : new Transaction(bckt, sender, recipient, GasFee, nonce));
+    }
+
+    /**
+     * Signs this transaction with {@link CryptoResources#SIGNATURE_ALGORITHM}.
+     * @param key The private key of the sender, whose {@linkplain CryptoResources#encodePublicKey(java.security.PublicKey)
+     *            encoded public key} is the {@linkplain #getSender() sender}.
+     * @return A copy of this transaction carrying the signature.
+     */
+    @Contract("_ -> new")
+    public @NotNull Transaction sign(@NotNull PrivateKey key) throws InvalidKeyException, SignatureException {
+        final var s = CryptoResources.getStandardSignature();
+        s.initSign(key);
+        s.update(getSigningBytes());
+        return new Transaction(bckt, sender, recipient, GasFee, nonce, new String(Hex.encodeHex(s.sign())));
+    }
+
+    /**
+     * Checks the signature against the public key the {@linkplain #getSender() sender} encodes.
+     * @return Whether the transaction is signed by its sender. Unsigned transactions, and transactions whose sender is not
+     *         an encoded public key, are not.
+     * @see SignatureVerifier
+     */
+    public boolean verifySignature() {
+        final var request = getSignatureRequest();
+        return request != null && SignatureVerifier.getInstance().verify(request);
+    }
+
+    /**
+     * Returns what {@link SignatureVerifier} checks for this transaction, so that the signatures of many transactions
+     * can be {@linkplain SignatureVerifier#findInvalid(java.util.List) verified together}.
+     * @return The request, or <code>null</code> if the transaction is unsigned or its signature is not hexadecimal.
+     */
+    public @Nullable SignatureVerifier.Request getSignatureRequest() {
+        if(signature == null || sender == null) return null;
+        try {
+            return new SignatureVerifier.Request(getSigningBytes(), sender, Hex.decodeHex(signature.toCharArray()));
+        } catch(DecoderException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a JSON representation of this {@linkplain Transaction}. The transaction is immutable,
+     * so the JSON is only built once.
      */
     @Override
     public String toString() {
-        var g = new GsonBuilder().create();
-        return g.toJson(this, Transaction.class);
+        var j = json;
+        if(j == null) json = j = JsonResources.getGson().toJson(this, Transaction.class);
+        return j;
+    }
+
+    /**
+     * Encodes a transaction as <code>{"bckt", "sender", "recipient", "GasFee", "nonce", "signature"}</code>, the fields
+     * in order. The signature is left out of unsigned transactions.
+     */
+    static final class GsonAdapter extends TypeAdapter<Transaction> {
+
+        @Override
+        public void write(JsonWriter out, Transaction value) throws IOException {
+            out.beginObject();
+            out.name("bckt").value(value.bckt);
+            out.name("sender").value(value.sender);
+            out.name("recipient").value(value.recipient);
+            out.name("GasFee").value(value.GasFee);
+            out.name("nonce").value(value.nonce);
+            if(value.signature != null) out.name("signature").value(value.signature);
+            out.endObject();
+        }
+
+        @Override
+        public Transaction read(JsonReader in) throws IOException {
+            long bckt = 0, gasFee = 0, nonce = NO_NONCE;
+            String sender = null, recipient = null, signature = null;
+            in.beginObject();
+            while(in.hasNext()) {
+                switch(in.nextName()) {
+                    case "bckt" -> bckt = in.nextLong();
+                    case "sender" -> sender = JsonResources.nextString(in);
+                    case "recipient" -> recipient = JsonResources.nextString(in);
+                    case "GasFee" -> gasFee = in.nextLong();
+                    case "nonce" -> nonce = in.nextLong();
+                    case "signature" -> signature = JsonResources.nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            try {
+                return new Transaction(bckt, sender, recipient, gasFee, nonce, signature);
+            } catch(IllegalArgumentException e) {
+                throw new JsonSyntaxException(e);
+            }
+        }
+
     }
 }
@@ -131,7 +131,6 @@ public class HashChain<E> implements
 	 */
 	protected void add(@NotNull HashChainBlock e, Object @NotNull [] eData, int i) {
 
-		System.out.println("test");
 		if(i == eData.length) grow();
 		data[i] = e;
 		count = i + 1;
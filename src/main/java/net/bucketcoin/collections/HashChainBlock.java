@@ -17,8 +17,15 @@
 package net.bucketcoin.collections;
 
 import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import lombok.Getter;
 import net.bucketcoin.util.CryptoResources;
+import net.bucketcoin.util.JsonResources;
 import static net.bucketcoin.util.SerializationResources.*;
 
 import org.apache.commons.codec.digest.DigestUtils;
@@ -28,6 +35,7 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.Objects;
@@ -35,6 +43,7 @@ import java.util.Objects;
 /**
  * This class represents a 'block' in cryptography.
  */
+@JsonAdapter(HashChainBlock.GsonAdapter.class)
 public class HashChainBlock implements IBlock, Serializable {
 
 	@Getter
@@ -92,14 +101,18 @@ public class HashChainBlock implements IBlock, Serializable {
 	}
 
 	private HashChainBlock(@NotNull String hash, @NotNull String prevHash, @NotNull String prevHash2) {
+		this(hash, prevHash, prevHash2, null);
+	}
+
+	private HashChainBlock(String hash, String prevHash, String prevHash2, Object data) {
 		this.hash = hash;
 		this.prevHash = prevHash;
 		this.prevHash2 = prevHash2;
-		this.data = null;
+		this.data = data;
 	}
 
 	public String toJson() {
-		return new Gson().toJson(this, HashChainBlock.class);
+		return JsonResources.getGson().toJson(this, HashChainBlock.class);
 	}
 
 	@Contract("-> new")
@@ -142,4 +155,50 @@ public class HashChainBlock implements IBlock, Serializable {
 
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Encodes a block as its hashes and its data, which is encoded as its runtime type and decoded as a plain JSON value.
+	 */
+	static final class GsonAdapter implements TypeAdapterFactory {
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+			if(type.getRawType() != HashChainBlock.class) return null;
+			final TypeAdapter<Object> objects = gson.getAdapter(Object.class);
+			return (TypeAdapter<T>) new TypeAdapter<HashChainBlock>() {
+
+				@Override
+				public void write(JsonWriter out, HashChainBlock value) throws IOException {
+					out.beginObject();
+					out.name("hash").value(value.hash);
+					out.name("prevHash").value(value.prevHash);
+					out.name("prevHash2").value(value.prevHash2);
+					out.name("data");
+					objects.write(out, value.data);
+					out.endObject();
+				}
+
+				@Override
+				public HashChainBlock read(JsonReader in) throws IOException {
+					String hash = null, prevHash = null, prevHash2 = null;
+					Object data = null;
+					in.beginObject();
+					while(in.hasNext()) {
+						switch(in.nextName()) {
+							case "hash" -> hash = JsonResources.nextString(in);
+							case "prevHash" -> prevHash = JsonResources.nextString(in);
+							case "prevHash2" -> prevHash2 = JsonResources.nextString(in);
+							case "data" -> data = objects.read(in);
+							default -> in.skipValue();
+						}
+					}
+					in.endObject();
+					return new HashChainBlock(hash, prevHash, prevHash2, data);
+				}
+
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.collections;
+
+import lombok.Getter;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Proves that a leaf is part of a {@link MerkleTree} without the rest of the leaves.
+ * A proof holds the leaf index, the number of leaves and one sibling hash per level
+ * where the path has a sibling, which is at most <code>ceil(log2(leafCount))</code> hashes.
+ * @see MerkleTree#proof(int)
+ */
+public final class MerkleProof {
+
+	@Getter
+	private final int index;
+	@Getter
+	private final int leafCount;
+	private final byte[][] siblings;
+
+	MerkleProof(int index, int leafCount, byte[] @NotNull [] siblings) {
+		if(index < 0 || index >= leafCount) throw new IllegalArgumentException("Leaf " + index + " out of " + leafCount);
+		this.index = index;
+		this.leafCount = leafCount;
+		this.siblings = siblings;
+	}
+
+	/**
+	 * Checks that <i>leaf</i> is the leaf at {@link #getIndex()} of the tree with the root.
+	 * @param leaf The leaf data, as it was given to the tree.
+	 * @param root The tree root.
+	 * @return Whether the proof holds.
+	 */
+	public boolean verify(byte @NotNull [] leaf, byte @NotNull [] root) {
+
+		final MessageDigest digest = MerkleTree.newDigest();
+		byte[] hash = MerkleTree.hashLeaf(digest, leaf);
+		int i = index;
+		int s = 0;
+		for(int n = leafCount; n > 1; n = (n + 1) / 2) {
+			if((i ^ 1) < n) {
+				if(s == siblings.length) return false;
+				hash = (i & 1) == 0
+						? MerkleTree.hashNode(digest, hash, siblings[s++])
+						: MerkleTree.hashNode(digest, siblings[s++], hash);
+			}
+			i >>>= 1;
+		}
+		return s == siblings.length && MessageDigest.isEqual(hash, root);
+
+	}
+
+	/**
+	 * Encodes the proof as the index and the leaf count, both 4-byte big-endian, followed by the sibling hashes.
+	 * @return The encoded proof.
+	 */
+	@Contract("-> new")
+	public byte @NotNull [] toBytes() {
+		var buffer = ByteBuffer.allocate(Integer.BYTES * 2 + siblings.length * MerkleTree.HASH_LENGTH);
+		buffer.putInt(index).putInt(leafCount);
+		for(byte[] sibling : siblings) buffer.put(sibling);
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes a proof encoded by {@link #toBytes()}.
+	 * @param bytes The encoded proof.
+	 * @return The proof.
+	 * @throws IllegalArgumentException if the bytes are not an encoded proof.
+	 */
+	@Contract("_ -> new")
+	public static @NotNull MerkleProof fromBytes(byte @NotNull [] bytes) {
+		if(bytes.length < Integer.BYTES * 2 || (bytes.length - Integer.BYTES * 2) % MerkleTree.HASH_LENGTH != 0)
+			throw new IllegalArgumentException("Malformed Merkle proof of " + bytes.length + " bytes");
+		var buffer = ByteBuffer.wrap(bytes);
+		final int index = buffer.getInt();
+		final int leafCount = buffer.getInt();
+		final byte[][] siblings = new byte[buffer.remaining() / MerkleTree.HASH_LENGTH][MerkleTree.HASH_LENGTH];
+		for(byte[] sibling : siblings) buffer.get(sibling);
+		return new MerkleProof(index, leafCount, siblings);
+	}
+
+	@Override
+	public String toString() {
+		return "MerkleProof[index=" + index + ", leafCount=" + leafCount + ", siblings=" + siblings.length + "]";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof MerkleProof p && p.index == index && p.leafCount == leafCount && Arrays.deepEquals(p.siblings, siblings);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * index + leafCount) + Arrays.deepHashCode(siblings);
+	}
+
+}
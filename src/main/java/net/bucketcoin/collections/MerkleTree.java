@@ -0,0 +1,239 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.collections;
+
+import lombok.SneakyThrows;
+import net.bucketcoin.util.CryptoResources;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * A binary Merkle tree over SHA-256. Leaves and inner nodes are hashed with a different
+ * one-byte prefix, so that an inner node can never be passed off as a leaf, and a node
+ * without a sibling is promoted to the next level as is instead of being paired with itself.
+ * <br><br>
+ * Large trees are hashed in parallel on the common {@link java.util.concurrent.ForkJoinPool}: leaves are
+ * encoded and hashed in chunks of {@link #PARALLEL_THRESHOLD}, and so are the levels above them.
+ * Smaller levels are hashed on the calling thread.
+ */
+public final class MerkleTree {
+
+	public static final int HASH_LENGTH = 32;
+	/**
+	 * The number of hashes below which a level is hashed on the calling thread.
+	 */
+	public static final int PARALLEL_THRESHOLD = 512;
+
+	static final byte LEAF_PREFIX = 0;
+	static final byte NODE_PREFIX = 1;
+
+	/**
+	 * Every level of the tree, from the leaf hashes up to the root.
+	 */
+	private final List<byte[][]> levels;
+
+	private MerkleTree(List<byte[][]> levels) {
+		this.levels = levels;
+	}
+
+	/**
+	 * Builds the tree of the leaves.
+	 * @param leaves The leaf data, in order.
+	 * @return The tree.
+	 */
+	@Contract("_ -> new")
+	public static @NotNull MerkleTree of(@NotNull List<byte[]> leaves) {
+		return of(leaves, Function.identity());
+	}
+
+	/**
+	 * Builds the tree of the leaves.
+	 * @param leaves The leaves, in order.
+	 * @param encoder Converts a leaf into the bytes that are hashed. It may be called from several threads.
+	 * @param <T> The leaf type.
+	 * @return The tree.
+	 */
+	@Contract("_, _ -> new")
+	public static <T> @NotNull MerkleTree of(@NotNull List<T> leaves, @NotNull Function<? super T, byte[]> encoder) {
+
+		final List<byte[][]> levels = new ArrayList<>();
+		byte[][] level = new byte[leaves.size()][];
+		new LeafHasher<>(leaves, encoder, level, 0, level.length).invoke();
+		levels.add(level);
+
+		while(level.length > 1) {
+			final byte[][] next = new byte[(level.length + 1) / 2][];
+			new NodeHasher(level, next, 0, next.length).invoke();
+			levels.add(next);
+			level = next;
+		}
+
+		return new MerkleTree(levels);
+
+	}
+
+	/**
+	 * Computes the root of the leaves without keeping the tree.
+	 * @param leaves The leaf data, in order.
+	 * @return The root, or {@link #HASH_LENGTH} zero bytes if there are no leaves.
+	 */
+	@Contract("_ -> new")
+	public static byte @NotNull [] root(@NotNull List<byte[]> leaves) {
+		return of(leaves).getRoot();
+	}
+
+	/**
+	 * @return The root, or {@link #HASH_LENGTH} zero bytes if the tree has no leaves.
+	 */
+	public byte @NotNull [] getRoot() {
+		final byte[][] top = levels.get(levels.size() - 1);
+		return top.length == 0 ? new byte[HASH_LENGTH] : top[0].clone();
+	}
+
+	public int getLeafCount() {
+		return levels.get(0).length;
+	}
+
+	/**
+	 * Creates the proof that the leaf at <i>index</i> is part of this tree.
+	 * @param index The leaf index.
+	 * @return The proof.
+	 * @throws IndexOutOfBoundsException if there is no leaf at <i>index</i>.
+	 */
+	@Contract("_ -> new")
+	public @NotNull MerkleProof proof(int index) {
+
+		final int count = getLeafCount();
+		if(index < 0 || index >= count) throw new IndexOutOfBoundsException("Leaf " + index + " out of " + count);
+
+		final List<byte[]> siblings = new ArrayList<>(levels.size() - 1);
+		int i = index;
+		for(int l = 0; l < levels.size() - 1; l++) {
+			final byte[][] level = levels.get(l);
+			final int sibling = i ^ 1;
+			if(sibling < level.length) siblings.add(level[sibling]);
+			i >>>= 1;
+		}
+		return new MerkleProof(index, count, siblings.toArray(byte[][]::new));
+
+	}
+
+	static byte[] hashLeaf(MessageDigest digest, byte[] data) {
+		digest.update(LEAF_PREFIX);
+		digest.update(data);
+		return digest.digest();
+	}
+
+	static byte[] hashNode(MessageDigest digest, byte[] left, byte[] right) {
+		digest.update(NODE_PREFIX);
+		digest.update(left);
+		digest.update(right);
+		return digest.digest();
+	}
+
+	@SneakyThrows
+	static MessageDigest newDigest() {
+		return MessageDigest.getInstance(CryptoResources.HASH_ALGORITHM);
+	}
+
+	/**
+	 * Fills <code>[from, to)</code> of a level, splitting the range in halves until it is
+	 * no larger than {@link #PARALLEL_THRESHOLD}.
+	 */
+	private abstract static class Hasher extends RecursiveAction {
+
+		final int from;
+		final int to;
+
+		Hasher(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected final void compute() {
+			if(to - from <= PARALLEL_THRESHOLD) {
+				final MessageDigest digest = newDigest();
+				for(int i = from; i < to; i++) hash(digest, i);
+			} else {
+				final int mid = (from + to) >>> 1;
+				invokeAll(split(from, mid), split(mid, to));
+			}
+		}
+
+		abstract void hash(MessageDigest digest, int index);
+
+		abstract Hasher split(int from, int to);
+
+	}
+
+	private static final class LeafHasher<T> extends Hasher {
+
+		private final List<T> leaves;
+		private final Function<? super T, byte[]> encoder;
+		private final byte[][] out;
+
+		LeafHasher(List<T> leaves, Function<? super T, byte[]> encoder, byte[][] out, int from, int to) {
+			super(from, to);
+			this.leaves = leaves;
+			this.encoder = encoder;
+			this.out = out;
+		}
+
+		@Override
+		void hash(MessageDigest digest, int index) {
+			out[index] = hashLeaf(digest, encoder.apply(leaves.get(index)));
+		}
+
+		@Override
+		Hasher split(int from, int to) {
+			return new LeafHasher<>(leaves, encoder, out, from, to);
+		}
+
+	}
+
+	private static final class NodeHasher extends Hasher {
+
+		private final byte[][] level;
+		private final byte[][] out;
+
+		NodeHasher(byte[][] level, byte[][] out, int from, int to) {
+			super(from, to);
+			this.level = level;
+			this.out = out;
+		}
+
+		@Override
+		void hash(MessageDigest digest, int index) {
+			final int left = index * 2;
+			out[index] = left + 1 < level.length ? hashNode(digest, level[left], level[left + 1]) : level[left];
+		}
+
+		@Override
+		Hasher split(int from, int to) {
+			return new NodeHasher(level, out, from, to);
+		}
+
+	}
+
+}
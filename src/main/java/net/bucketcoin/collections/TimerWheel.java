@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.collections;
+
+import lombok.Getter;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel. Timers are kept in {@link #LEVELS} wheels of {@link #SLOTS} slots each;
+ * a slot of the first wheel spans one tick, and a slot of every further wheel spans a whole turn of
+ * the wheel below it. Scheduling and cancelling a timer are <code>O(1)</code>, and a timer is moved down
+ * at most <code>LEVELS - 1</code> times before it expires, so the cost per timer does not depend on how
+ * many timers there are. Deadlines beyond the last wheel are clamped to it.
+ * <br><br>
+ * Timers expire on the first {@link #advance(long, Consumer)} at or after their deadline, rounded up to a tick.
+ * @apiNote This class is not thread-safe.
+ * @param <T> The type of the timed items.
+ */
+public final class TimerWheel<T> {
+
+	public static final int SLOTS = 64;
+	public static final int LEVELS = 4;
+	private static final int SLOT_BITS = 6;
+
+	@Getter
+	private final long tick;
+	/**
+	 * The current time in ticks; every timer before it has expired.
+	 */
+	private long now;
+	private final Timeout<T>[][] wheels;
+	@Getter
+	private int size = 0;
+
+	/**
+	 * Creates a timer wheel.
+	 * @param tick The duration of a tick, in the unit the times are given in.
+	 * @param start The current time.
+	 * @throws IllegalArgumentException if <code>tick < 1</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(long tick, long start) {
+		if(tick < 1) throw new IllegalArgumentException("Tick must be positive");
+		this.tick = tick;
+		this.now = start / tick;
+		this.wheels = (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+	}
+
+	/**
+	 * Schedules a timer.
+	 * @param item The item to time.
+	 * @param deadline When the timer expires.
+	 * @return The timer, which can be {@linkplain #cancel(Timeout) cancelled}.
+	 */
+	@Contract("_, _ -> new")
+	public @NotNull Timeout<T> schedule(@NotNull T item, long deadline) {
+		final var timeout = new Timeout<>(item, Math.max(ceilDiv(deadline, tick), now + 1));
+		insert(timeout);
+		size++;
+		return timeout;
+	}
+
+	/**
+	 * Cancels a timer that has not expired yet.
+	 * @param timeout The timer.
+	 * @return Whether the timer was pending.
+	 */
+	public boolean cancel(@NotNull Timeout<T> timeout) {
+		if(timeout.level < 0) return false;
+		unlink(timeout);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Advances the wheel to <i>time</i>, expiring every timer whose deadline has passed.
+	 * @param time The current time.
+	 * @param expired Receives the item of every expired timer.
+	 * @return The number of expired timers.
+	 */
+	public int advance(long time, @NotNull Consumer<? super T> expired) {
+		final long target = time / tick;
+		int count = 0;
+		while(now < target && size > 0) {
+			now++;
+			// a turn of a wheel is complete, so the next slot of the wheel above it is moved down, highest first
+			int turns = 0;
+			while(turns < LEVELS - 1 && (now & ((1L << (SLOT_BITS * (turns + 1))) - 1)) == 0) turns++;
+			for(int level = turns; level > 0; level--) {
+				cascade(level, slot(now, level));
+			}
+			Timeout<T> t = wheels[0][slot(now, 0)];
+			while(t != null) {
+				final Timeout<T> next = t.next;
+				unlink(t);
+				size--;
+				count++;
+				expired.accept(t.item);
+				t = next;
+			}
+		}
+		if(now < target) now = target; // nothing is left to expire on the way
+		return count;
+	}
+
+	private void cascade(int level, int slot) {
+		Timeout<T> t = wheels[level][slot];
+		wheels[level][slot] = null;
+		while(t != null) {
+			final Timeout<T> next = t.next;
+			t.prev = t.next = null;
+			insert(t);
+			t = next;
+		}
+	}
+
+	/**
+	 * Puts a timer in the lowest wheel whose turn reaches its deadline.
+	 */
+	private void insert(Timeout<T> t) {
+		final long delta = t.deadline - now;
+		int level = 0;
+		while(level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) level++;
+		final long deadline = level == LEVELS - 1
+				? Math.min(t.deadline, now + (1L << (SLOT_BITS * LEVELS)) - 1)
+				: t.deadline;
+		final int slot = slot(deadline, level);
+		t.level = level;
+		t.slot = slot;
+		t.prev = null;
+		t.next = wheels[level][slot];
+		if(t.next != null) t.next.prev = t;
+		wheels[level][slot] = t;
+	}
+
+	private void unlink(Timeout<T> t) {
+		if(t.prev != null) t.prev.next = t.next;
+		else wheels[t.level][t.slot] = t.next;
+		if(t.next != null) t.next.prev = t.prev;
+		t.prev = t.next = null;
+		t.level = -1;
+	}
+
+	private static int slot(long ticks, int level) {
+		return (int) ((ticks >>> (SLOT_BITS * level)) & (SLOTS - 1));
+	}
+
+	private static long ceilDiv(long a, long b) {
+		return -Math.floorDiv(-a, b);
+	}
+
+	/**
+	 * A scheduled timer.
+	 * @param <T> The type of the timed item.
+	 */
+	public static final class Timeout<T> {
+
+		@Getter
+		private final T item;
+		private final long deadline;
+		private int level = -1;
+		private int slot;
+		private @Nullable Timeout<T> prev;
+		private @Nullable Timeout<T> next;
+
+		private Timeout(T item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return Whether the timer has neither expired nor been cancelled.
+		 */
+		public boolean isPending() {
+			return level >= 0;
+		}
+
+	}
+
+}
@@ -42,5 +42,5 @@ public interface Contract extends Blockable {
 	 * Returns the gas fee in 0.000001 BCKT.
 	 */
 	@Override
-	double getGasFee();
+	long getGasFee();
 }
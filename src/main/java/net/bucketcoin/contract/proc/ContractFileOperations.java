@@ -140,7 +140,7 @@ public final class ContractFileOperations {
 				    * The (one-time) gas fee for an approval Message.
 				    */
 					@Override
-					public double getGasFee() {
+					public long getGasFee() {
 						return 1;
 					}
 				    
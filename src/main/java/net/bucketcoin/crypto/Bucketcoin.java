@@ -18,12 +18,18 @@ package net.bucketcoin.crypto;
 
 import net.bucketcoin.block.Block;
 import net.bucketcoin.block.Transaction;
+import net.bucketcoin.util.Amounts;
+import org.jetbrains.annotations.NotNull;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 import static net.bucketcoin.pow.DifficultyAlgorithm.calculateDifficulty;
 
@@ -37,14 +43,15 @@ public final class Bucketcoin {
 
     private static final Block genesis = new Block("", new ArrayList<>(){{
 
-        add(new Transaction(170, "spy", "yps", 3));
-        add(new Transaction(692, "yps", "your mother", 9));
-        add(new Transaction(694.20, "spy", "your mother", 3));
+        add(new Transaction(Amounts.ofBckt(170), "spy", "yps", 3));
+        add(new Transaction(Amounts.ofBckt(692), "yps", "your mother", 9));
+        add(new Transaction(Amounts.parse("694.20"), "spy", "your mother", 3));
 
     }});
 
     private static final Bucketcoin bucketcoin = new Bucketcoin();
     public Stack<Block> chain = new Stack<>();
+    private final List<Consumer<Block>> tipListeners = new CopyOnWriteArrayList<>();
 
     public static Bucketcoin getInstance() {
         return bucketcoin;
@@ -112,6 +119,37 @@ public final class Bucketcoin {
         return Math.abs(a - b);
     }
 
+    /**
+     * Pushes a block onto the chain and signals every tip listener with it. The block is not checked;
+     * blocks reach the chain through {@link net.bucketcoin.node.Verifier#accept(Block)}, which verifies them first.
+     * A listener that throws is logged, and does not keep the others from being signalled.
+     * @param block The new chain tip.
+     * @see #addTipListener(Consumer)
+     */
+    public void pushBlock(@NotNull Block block) {
+        chain.push(block);
+        for(Consumer<Block> listener : tipListeners) {
+            try {
+                listener.accept(block);
+            } catch(RuntimeException e) {
+                Logger.getGlobal().severe("Tip listener failed : " + e);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener that is called with the new chain tip every time a block is
+     * {@linkplain #pushBlock(Block) pushed}. Listeners run on the pushing thread and should return quickly.
+     * @param listener The listener.
+     */
+    public void addTipListener(@NotNull Consumer<Block> listener) {
+        tipListeners.add(listener);
+    }
+
+    public void removeTipListener(@NotNull Consumer<Block> listener) {
+        tipListeners.remove(listener);
+    }
+
     /**
      * Get the previous block from the chain.
      */
@@ -17,13 +17,20 @@
 package net.bucketcoin.crypto.state;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import net.bucketcoin.p2p.Node;
+import net.bucketcoin.util.Amounts;
+import net.bucketcoin.util.JsonResources;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.iq80.leveldb.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import static org.iq80.leveldb.impl.Iq80DBFactory.*;
 import java.io.*;
@@ -34,11 +41,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * This is a World State Trie where global operations are called.
  * Wallet balances are updated here and not {@link net.bucketcoin.wallet.Wallet}.
+ * <br><br>
+ * The trie is opened on first use, which needs the node to be initialized. Using it earlier throws an
+ * {@link IllegalStateException} and leaves it to be opened by a later call; check {@link #isAvailable()} first.
  */
 public final class StateTrie {
 
-	private static final StateTrie adr = new StateTrie(); // This is a singleton class.
-	private static DB database;
+	private static volatile StateTrie adr; // This is a singleton class.
+	private static volatile DB database;
 
 	public Map<? extends byte[], ? extends byte[]> asMap() {
 		ImmutableMap.Builder<byte[], byte[]> mapBuilder = ImmutableMap.builder();
@@ -49,29 +59,56 @@ public final class StateTrie {
 		return mapBuilder.build();
 	}
 
+	/**
+	 * Opens the trie if it is not open yet.
+	 * @throws IllegalStateException if the node is not initialized.
+	 */
 	public static StateTrie getInstance() {
-		return adr;
+		var a = adr;
+		if(a == null) {
+			synchronized(StateTrie.class) {
+				a = adr;
+				if(a == null) adr = a = new StateTrie();
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * @return Whether the trie can be used: it is open, or the node is initialized so that it can be opened.
+	 */
+	public static boolean isAvailable() {
+		return adr != null || Node.isInitialized();
 	}
 
 	@SneakyThrows
 	private StateTrie() {
+		if(!Node.isInitialized()) throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
 		var opt = new Options();
 		opt.createIfMissing();
-		database = factory.open(new File("BCKTAddressRecord"), opt);
+		var db = factory.open(new File("BCKTAddressRecord"), opt);
 		var thisUser = new AddressProperties(0, 0, StorageTrie.getUserTrie().toHash(), null);
 		AtomicInteger k = new AtomicInteger(0);
-		database.forEach(entry -> k.getAndIncrement());
-		if(Node.getNodeWallet() == null) throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
-		if(k.equals(new AtomicInteger(0))) database.put(Node.getNodeWallet().asBytes(), thisUser.asBytes());
+		db.forEach(entry -> k.getAndIncrement());
+		if(k.equals(new AtomicInteger(0))) db.put(Node.getNodeWallet().asBytes(), thisUser.asBytes());
+		database = db;
 
 	}
 
-	public static AddressProperties queryAddress(byte[] address) {
-		return AddressProperties.fromBytes(database.get(address, new ReadOptions().verifyChecksums(true)));
+	/**
+	 * @param address The account key.
+	 * @return The properties of the account, or <code>null</code> if there is no such account.
+	 * @throws IllegalStateException if the node is not initialized.
+	 */
+	public static @Nullable AddressProperties queryAddress(byte[] address) {
+		getInstance();
+		final byte[] bytes = database.get(address, new ReadOptions().verifyChecksums(true));
+		return bytes == null ? null : AddressProperties.fromBytes(bytes);
 	}
 
 	public static void addAccount(@NotNull String address, @NotNull AddressProperties addressProperties) {
 
+		getInstance();
 		database.put(address.getBytes(StandardCharsets.ISO_8859_1), addressProperties.asBytes());
 
 	}
@@ -79,11 +116,12 @@ public final class StateTrie {
 	/**
 	 * A record representing the properties of an address.
 	 * @param nonce The number of transactions sent from the user.
-	 * @param balance The BCKT holdings of the user.
+	 * @param balance The BCKT holdings of the user, in {@linkplain Amounts base units}.
 	 * @param storageRoot The SHA-256 hash of the user's {@link StorageTrie}
 	 * @param codeHash Code hash.
 	 */
-	public static record AddressProperties(int nonce, double balance, byte[] storageRoot, @Setter byte[] codeHash) {
+	@JsonAdapter(AddressProperties.GsonAdapter.class)
+	public static record AddressProperties(int nonce, long balance, byte[] storageRoot, @Setter byte[] codeHash) {
 
 		public byte[] asBytes() {
 			return toString().getBytes(StandardCharsets.ISO_8859_1);
@@ -91,7 +129,7 @@ public final class StateTrie {
 
 		@Override
 		public String toString() {
-			return new GsonBuilder().create().toJson(this, AddressProperties.class);
+			return JsonResources.getGson().toJson(this, AddressProperties.class);
 		}
 
 		public String getHash() {
@@ -99,13 +137,73 @@ public final class StateTrie {
 		}
 
 		public static AddressProperties fromJSON(String json) {
-			return new GsonBuilder().create().fromJson(json, AddressProperties.class);
+			return JsonResources.getGson().fromJson(json, AddressProperties.class);
 		}
 
 		public static AddressProperties fromBytes(byte[] bytes) {
 			return fromJSON(new String(bytes, StandardCharsets.ISO_8859_1));
 		}
 
+		/**
+		 * Encodes the properties as their components, with the byte arrays as arrays of numbers.
+		 */
+		static final class GsonAdapter extends TypeAdapter<AddressProperties> {
+
+			@Override
+			public void write(JsonWriter out, AddressProperties value) throws IOException {
+				out.beginObject();
+				out.name("nonce").value(value.nonce);
+				out.name("balance").value(value.balance);
+				out.name("storageRoot");
+				writeBytes(out, value.storageRoot);
+				out.name("codeHash");
+				writeBytes(out, value.codeHash);
+				out.endObject();
+			}
+
+			@Override
+			public AddressProperties read(JsonReader in) throws IOException {
+				int nonce = 0;
+				long balance = 0;
+				byte[] storageRoot = null, codeHash = null;
+				in.beginObject();
+				while(in.hasNext()) {
+					switch(in.nextName()) {
+						case "nonce" -> nonce = in.nextInt();
+						case "balance" -> balance = in.nextLong();
+						case "storageRoot" -> storageRoot = readBytes(in);
+						case "codeHash" -> codeHash = readBytes(in);
+						default -> in.skipValue();
+					}
+				}
+				in.endObject();
+				return new AddressProperties(nonce, balance, storageRoot, codeHash);
+			}
+
+			private static void writeBytes(JsonWriter out, byte[] bytes) throws IOException {
+				if(bytes == null) {
+					out.nullValue();
+					return;
+				}
+				out.beginArray();
+				for(byte b : bytes) out.value(b);
+				out.endArray();
+			}
+
+			private static byte[] readBytes(JsonReader in) throws IOException {
+				if(in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					return null;
+				}
+				final var bytes = new ByteArrayOutputStream();
+				in.beginArray();
+				while(in.hasNext()) bytes.write(in.nextInt());
+				in.endArray();
+				return bytes.toByteArray();
+			}
+
+		}
+
 	}
 
 }
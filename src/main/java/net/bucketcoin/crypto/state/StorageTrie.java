@@ -16,13 +16,18 @@
 
 package net.bucketcoin.crypto.state;
 
-import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import net.bucketcoin.p2p.Node;
+import net.bucketcoin.util.JsonResources;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -30,14 +35,15 @@ import java.util.HashSet;
 /**
  * This class is a trie for storing contract data.
  */
+@JsonAdapter(StorageTrie.GsonAdapter.class)
 public class StorageTrie {
 
 	@Getter private final String address;
 	private static final StorageTrie userTrie;
 
 	static {
-		if(Node.getNodeWallet() == null) throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
-		userTrie = new StorageTrie(Node.getNodeWallet().getAddress());
+		if(!Node.isInitialized()) throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
+		userTrie = new StorageTrie(Node.getNodeWallet().getAccount());
 	}
 
 	/** @see net.bucketcoin.contract.proc.ContractFileOperations#getContractAsString(File)  **/
@@ -45,7 +51,7 @@ public class StorageTrie {
 
 	/**
 	 * Creates a StorageTrie unique to each address.
-	 * @param address The wallet address.
+	 * @param address The {@linkplain net.bucketcoin.wallet.Wallet#getAccount() account} of the wallet.
 	 */
 	@SneakyThrows
 	public StorageTrie(String address) {
@@ -58,7 +64,7 @@ public class StorageTrie {
 
 	@Override
 	public String toString() {
-		return new Gson().toJson(this, StorageTrie.class);
+		return JsonResources.getGson().toJson(this, StorageTrie.class);
 	}
 
 	public byte[] toHash() {
@@ -92,4 +98,54 @@ public class StorageTrie {
 		return hashMap;
 	}
 
+	/**
+	 * Encodes a trie as its address and the hashes of its active and pending contracts.
+	 */
+	static final class GsonAdapter extends TypeAdapter<StorageTrie> {
+
+		@Override
+		public void write(JsonWriter out, StorageTrie value) throws IOException {
+			out.beginObject();
+			out.name("address").value(value.address);
+			out.name("contractsActive");
+			writeSet(out, value.contractsActive);
+			out.name("contractsPending");
+			writeSet(out, value.contractsPending);
+			out.endObject();
+		}
+
+		@Override
+		public StorageTrie read(JsonReader in) throws IOException {
+			String address = null;
+			final HashSet<String> active = new HashSet<>(), pending = new HashSet<>();
+			in.beginObject();
+			while(in.hasNext()) {
+				switch(in.nextName()) {
+					case "address" -> address = JsonResources.nextString(in);
+					case "contractsActive" -> readSet(in, active);
+					case "contractsPending" -> readSet(in, pending);
+					default -> in.skipValue();
+				}
+			}
+			in.endObject();
+			final var trie = new StorageTrie(address);
+			trie.contractsActive.addAll(active);
+			trie.contractsPending.addAll(pending);
+			return trie;
+		}
+
+		private static void writeSet(JsonWriter out, HashSet<String> set) throws IOException {
+			out.beginArray();
+			for(String s : set) out.value(s);
+			out.endArray();
+		}
+
+		private static void readSet(JsonReader in, HashSet<String> set) throws IOException {
+			in.beginArray();
+			while(in.hasNext()) set.add(in.nextString());
+			in.endArray();
+		}
+
+	}
+
 }
@@ -17,6 +17,7 @@
 package net.bucketcoin.crypto.token.nft;
 
 import lombok.SneakyThrows;
+import net.bucketcoin.util.Amounts;
 import net.bucketcoin.util.CryptoResources;
 import net.bucketcoin.util.SerializationResources;
 import net.bucketcoin.exception.InsufficientBalanceException;
@@ -34,6 +35,11 @@ import java.util.*;
 
 public final class NonFungibleToken {
 
+	/**
+	 * The price of minting a token, 0.032 BCKT.
+	 */
+	public static final long MINTING_FEE = 32 * Amounts.UNITS_PER_BCKT / 1000;
+
 	private final Key identifier; // Bucketcoin is spent to generate a Key.
 	private final File file;
 	private final String minterAddress;
@@ -63,19 +69,19 @@ public final class NonFungibleToken {
 	}
 
 	public static @NotNull NonFungibleToken mint(@NotNull File file, @NotNull Wallet minterWallet) throws InsufficientBalanceException {
-		var a = minterWallet.hasEnough(0.032);
+		var a = minterWallet.hasEnough(MINTING_FEE);
 		if(!a) throw new InsufficientBalanceException(); else
-			return new NonFungibleToken(file, minterWallet.getAddress());
+			return new NonFungibleToken(file, minterWallet.getAccount());
 	}
 
 	public static NonFungibleToken[] mint(@NotNull File file, int copies, @NotNull Wallet minterWallet) throws InsufficientBalanceException, IllegalArgumentException {
 		if(copies <= 0) throw new IllegalArgumentException("Number of copies CANNOT be negative!");
-		var a = minterWallet.hasEnough(0.032 * copies);
+		var a = minterWallet.hasEnough(Amounts.multiply(MINTING_FEE, copies));
 		if(!a) throw new InsufficientBalanceException(); else {
 			ArrayList<NonFungibleToken> nonFungibleTokens = new ArrayList<>(copies);
 			var k = CryptoResources.getStandardSymmetricKeyGenerator().generateKey();
 			for(int i = 0; i < copies; i++) nonFungibleTokens.add(
-					new NonFungibleToken(file, minterWallet.getAddress(), k)
+					new NonFungibleToken(file, minterWallet.getAccount(), k)
 			);
 			return nonFungibleTokens.toArray(NonFungibleToken[]::new);
 		}
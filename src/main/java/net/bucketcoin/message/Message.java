@@ -18,6 +18,7 @@ package net.bucketcoin.message;
 
 import lombok.Getter;
 import net.bucketcoin.exception.InsufficientBalanceException;
+import net.bucketcoin.util.Amounts;
 import net.bucketcoin.wallet.Wallet;
 import org.jetbrains.annotations.NotNull;
 
@@ -36,17 +37,20 @@ public abstract class Message {
     private List<?> toSend;
     private List<?> toGet;
 
-    private final double gas_fee;
+    private final long gas_fee;
+    /**
+     * The amount to transfer, in {@linkplain Amounts base units}.
+     */
     @Getter
-    private double bckt;
+    private long bckt;
 
     /**
      * A message to send to the recipient.
      * @param recipient The message recipient to deliver the message to.
-     * @param gas_fee The gas fee (in 0.00000??? BCKT) paid to validate the message. The higher it is, the higher priority your {@code Message} gets.
-     * @param bckt The BCKT that will be transferred to the recipient.
+     * @param gas_fee The gas fee (in 0.000001 BCKT) paid to validate the message. The higher it is, the higher priority your {@code Message} gets.
+     * @param bckt The BCKT that will be transferred to the recipient, in {@linkplain Amounts base units}.
      */
-    public Message(@NotNull Wallet recipient, double gas_fee, double bckt) {
+    public Message(@NotNull Wallet recipient, long gas_fee, long bckt) {
         this.recipient = recipient;
         this.gas_fee = gas_fee;
         this.bckt = bckt;
@@ -57,9 +61,9 @@ public abstract class Message {
      * @param recipient The message recipient to deliver the message to.
      * @param toSend The {@link Object}s the request sender wishes to give.
      * @param toGet The {@link Object}s the request sender wishes to take.
-     * @param gas_fee The gas fee (in 0.00000??? BCKT) paid to validate the message. The higher it is, the higher priority your {@code Message} gets.
+     * @param gas_fee The gas fee (in 0.000001 BCKT) paid to validate the message. The higher it is, the higher priority your {@code Message} gets.
      */
-    public Message(@NotNull Wallet recipient, List<?> toSend, List<?> toGet, double gas_fee) {
+    public Message(@NotNull Wallet recipient, List<?> toSend, List<?> toGet, long gas_fee) {
         this.recipient = recipient;
         this.toSend = toSend;
         this.toGet = toGet;
@@ -39,7 +39,7 @@ public class RequestTrade extends Message {
     private final Wallet recipient;
     private final List<?> toSend;
     private final List<?> toGet;
-    private final double gas_fee;
+    private final long gas_fee;
 
     /**
      * A message to send to the recipient.
@@ -48,9 +48,9 @@ public class RequestTrade extends Message {
      * @param recipient The message recipient to deliver the message to.
      * @param toSend    The {@link Object}s the request sender wishes to give.
      * @param toGet     The {@link Object}s the request sender wishes to take.
-     * @param gas_fee   The gas fee (in 0.00000??? BCKT) paid to validate the message. The higher it is, the higher priority your {@code Message} gets.
+     * @param gas_fee   The gas fee (in 0.000001 BCKT) paid to validate the message. The higher it is, the higher priority your {@code Message} gets.
      */
-    public RequestTrade(@NotNull Wallet sender, @NotNull Wallet recipient, List<?> toSend, List<?> toGet, double gas_fee) {
+    public RequestTrade(@NotNull Wallet sender, @NotNull Wallet recipient, List<?> toSend, List<?> toGet, long gas_fee) {
 
         super(recipient, toSend, toGet, gas_fee);
 
@@ -63,7 +63,7 @@ public class RequestTrade extends Message {
 
     @Override
     public void send(@NotNull Wallet sender) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
-        Trade trade = new Trade(toGet, toSend, sender.getPublicKey().toString(), recipient.getPublicKey().toString(), gas_fee);
+        Trade trade = new Trade(toGet, toSend, sender.getAccount(), recipient.getAccount(), gas_fee);
         String trade_sha256 = DigestUtils.shaHex(trade.toString());
         var c = CryptoResources.getStandardCipher();
         c.init(Cipher.ENCRYPT_MODE, sender.getPrivateKey());
@@ -16,29 +16,28 @@
 
 package net.bucketcoin.message;
 
+import lombok.SneakyThrows;
 import net.bucketcoin.block.Transaction;
-import net.bucketcoin.util.CryptoResources;
 import net.bucketcoin.exception.InsufficientBalanceException;
+import net.bucketcoin.node.Mempool;
 import net.bucketcoin.p2p.Broadcast;
+import net.bucketcoin.util.Amounts;
 import net.bucketcoin.wallet.Wallet;
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.jetbrains.annotations.NotNull;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SignatureException;
 
 public class SendBCKT extends Message {
 
     private final Wallet recipient;
-    private final double bckt;
-    private final double gas_fee;
+    private final long bckt;
+    private final long gas_fee;
 
-    public SendBCKT(@NotNull Wallet recipient, double gas_fee, double bckt) {
+    public SendBCKT(@NotNull Wallet recipient, long gas_fee, long bckt) {
 
         super(recipient, gas_fee, bckt);
         this.recipient = recipient;
@@ -46,16 +45,34 @@ public class SendBCKT extends Message {
         this.gas_fee = gas_fee;
     }
 
+    /**
+     * Creates a payment whose gas fee is {@linkplain Mempool#estimateFee(int) estimated} from this node's mempool,
+     * so that it is mined within <i>targetBlocks</i> blocks unless higher fees arrive first.
+     * @param recipient The recipient.
+     * @param bckt The amount to send, in {@linkplain Amounts base units}.
+     * @param targetBlocks The number of blocks it should be mined within.
+     * @return The payment, ready to be sent.
+     */
+    public static @NotNull SendBCKT withEstimatedFee(@NotNull Wallet recipient, long bckt, int targetBlocks) {
+        return new SendBCKT(recipient, Mempool.getInstance().estimateFee(targetBlocks), bckt);
+    }
+
+    /**
+     * Signs the payment with the sender's key and sends it to the network. The transaction names both wallets
+     * by their {@linkplain Wallet#getAccount() accounts}, and carries the {@linkplain Mempool#nextNonce(String) next nonce}
+     * of the sender, so that it can only be mined once.
+     */
     @Override
-    public void send(@NotNull Wallet sender) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InsufficientBalanceException {
-        Transaction transaction = new Transaction(bckt, sender.getPublicKey().toString(), recipient.getPublicKey().toString(), gas_fee);
-        String transaction_sha256 = DigestUtils.shaHex(transaction.toString());
-        var c = CryptoResources.getStandardCipher();
-        c.init(Cipher.ENCRYPT_MODE, sender.getPrivateKey());
-        var signature = c.doFinal(transaction_sha256.getBytes(StandardCharsets.ISO_8859_1));
-        if(!sender.hasEnough(bckt + (gas_fee * 0.000001))) {
+    @SneakyThrows({SignatureException.class, DecoderException.class})
+    public void send(@NotNull Wallet sender) throws InvalidKeyException, InsufficientBalanceException {
+        if(!sender.hasEnough(Amounts.add(bckt, gas_fee))) {
             throw new InsufficientBalanceException();
         }
+        final String account = sender.getAccount();
+        Transaction transaction = new Transaction(bckt, account, recipient.getAccount(), gas_fee, Mempool.getInstance().nextNonce(account))
+                .sign((PrivateKey) sender.getPrivateKey());
+        var signature = Hex.decodeHex(transaction.getSignature().toCharArray());
+        Mempool.getInstance().addTransactionToPool(transaction); // the next payment takes the following nonce
         Broadcast.transaction(transaction, sender.getPublicKey(), signature); // network effect
     }
 }
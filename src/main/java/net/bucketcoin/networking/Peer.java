@@ -21,6 +21,8 @@ import lombok.SneakyThrows;
 import net.bucketcoin.runtime.event.Event;
 import net.bucketcoin.runtime.event.EventHandler;
 import net.bucketcoin.runtime.event.events.HandshakeEvent;
+import net.bucketcoin.networking.stratum.StratumServer;
+import net.bucketcoin.node.Miner;
 import net.bucketcoin.runtime.exception.InitializationException;
 import net.bucketcoin.util.SerializationResources;
 import net.bucketcoin.wallet.Wallet;
@@ -43,6 +45,7 @@ public final class Peer extends AbstractPeer {
 	private @Nullable Socket socket;
 	private final ExecutorService executorService = Executors.newCachedThreadPool();
 	private @NotNull State peerOperativeState = State.CLOSED;
+	private @Nullable StratumServer stratumServer;
 
 	/**
 	 * Creates a new Peer.
@@ -65,12 +68,18 @@ public final class Peer extends AbstractPeer {
 	 * loop for incoming {@link net.bucketcoin.runtime.event.Event Events} and then <code>return</code>, or
 	 * concurrency in Java can be utilized. This could be achieved with
 	 * {@link Thread Threads} or coroutine(s/implementations).
+	 * With {@link ConnectionMode#Stratum}, the peer serves mining jobs to pool clients through a {@link StratumServer}.
 	 */
 	@SuppressWarnings("InfiniteLoopStatement")
 	public void init(ConnectionMode protocol) throws IOException {
 
 		serverSocket = new ServerSocket(getPort());
 		peerOperativeState = State.OPERATING;
+		if(protocol == ConnectionMode.Stratum) {
+			stratumServer = new StratumServer(serverSocket, executorService, Miner.getInstance().getBlockBuilder());
+			stratumServer.start();
+			return;
+		}
 		executorService.submit(() -> {
 
 			try {
@@ -107,6 +116,7 @@ public final class Peer extends AbstractPeer {
 
 		peerOperativeState = State.CLOSING;
 
+		if(stratumServer != null) stratumServer.close();
 		if(socket != null) {
 			socket.shutdownInput();
 			socket.shutdownOutput();
@@ -0,0 +1,194 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.networking.stratum;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import lombok.Getter;
+import net.bucketcoin.block.BlockHeader;
+import net.bucketcoin.pow.CancellationToken;
+import net.bucketcoin.pow.MiningEngine;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A reference client for the {@link StratumServer}. It subscribes, mines every job it is notified of
+ * over its extranonce range with a {@link MiningEngine#search(byte[], int, long, long, CancellationToken, java.util.function.LongConsumer) MiningEngine},
+ * and submits the shares it finds.
+ */
+public final class StratumClient implements Closeable {
+
+	private final String worker;
+	private final Socket socket;
+	private final Writer out;
+	private final MiningEngine engine;
+	private final ExecutorService executorService = Executors.newFixedThreadPool(2, r -> {
+		var t = new Thread(null, r, "stratum-client");
+		t.setDaemon(true);
+		return t;
+	});
+	private final AtomicInteger ids = new AtomicInteger(0);
+	private final Set<Integer> pendingSubmits = ConcurrentHashMap.newKeySet();
+	private volatile CancellationToken token = new CancellationToken();
+	private volatile long extranonce1 = -1;
+	private volatile long shareDifficulty = 1;
+
+	@Getter
+	private final AtomicLong acceptedShares = new AtomicLong(0);
+	@Getter
+	private final AtomicLong rejectedShares = new AtomicLong(0);
+
+	/**
+	 * Connects to a server.
+	 * @param host The server host.
+	 * @param port The server port.
+	 * @param worker The worker name to authorize as.
+	 * @param workers The number of mining threads.
+	 * @throws IOException if the connection fails.
+	 */
+	public StratumClient(@NotNull String host, int port, @NotNull String worker, int workers) throws IOException {
+		this.worker = worker;
+		this.socket = new Socket(host, port);
+		this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		this.engine = new MiningEngine(workers);
+	}
+
+	/**
+	 * Subscribes, authorizes and starts mining the jobs pushed by the server.
+	 */
+	public void start() {
+		executorService.execute(this::read);
+		request("mining.subscribe", new JsonArray(), false);
+		var params = new JsonArray();
+		params.add(worker);
+		params.add("");
+		request("mining.authorize", params, false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		token.cancel();
+		engine.close();
+		executorService.shutdownNow();
+		socket.close();
+	}
+
+	private void read() {
+		try(var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.isBlank()) continue;
+				handle(JsonParser.parseString(line).getAsJsonObject());
+			}
+		} catch(IOException | RuntimeException e) {
+			if(!socket.isClosed()) Logger.getGlobal().warning("Stratum client disconnected : " + e.getMessage());
+		}
+	}
+
+	private void handle(JsonObject message) {
+
+		if(message.has("method") && !message.get("method").isJsonNull()) {
+			final JsonArray params = message.getAsJsonArray("params");
+			switch(message.get("method").getAsString()) {
+				case "mining.set_difficulty" -> shareDifficulty = params.get(0).getAsLong();
+				case "mining.notify" -> {
+					final String jobId = params.get(0).getAsString();
+					final byte[] header;
+					try {
+						header = Hex.decodeHex(params.get(1).getAsString().toCharArray());
+					} catch(DecoderException e) {
+						Logger.getGlobal().warning("Malformed Stratum job header : " + e.getMessage());
+						return;
+					}
+					final var previous = token;
+					token = new CancellationToken();
+					previous.cancel();
+					final var current = token;
+					executorService.execute(() -> mine(jobId, header, current));
+				}
+				default -> { /* unsupported notification */ }
+			}
+			return;
+		}
+
+		final JsonElement id = message.get("id");
+		final JsonElement result = message.get("result");
+		if(id == null || id.isJsonNull()) return;
+		if(extranonce1 < 0 && result != null && result.isJsonArray()) {
+			extranonce1 = Long.parseLong(result.getAsJsonArray().get(1).getAsString(), 16);
+		} else if(pendingSubmits.remove(id.getAsInt())) {
+			if(result != null && !result.isJsonNull() && result.getAsBoolean()) acceptedShares.incrementAndGet();
+			else rejectedShares.incrementAndGet();
+		}
+
+	}
+
+	/**
+	 * Mines the job over the lower 4 nonce bytes, submitting every share until the job is replaced.
+	 */
+	private void mine(String jobId, byte[] header, CancellationToken current) {
+		try {
+			engine.search(header, BlockHeader.NONCE_OFFSET, extranonce1 << 32, shareDifficulty, current, nonce -> {
+				var params = new JsonArray();
+				params.add(worker);
+				params.add(jobId);
+				params.add(String.format("%016x", nonce));
+				request("mining.submit", params, true);
+			});
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void request(String method, JsonArray params, boolean share) {
+		final int id = ids.getAndIncrement();
+		if(share) pendingSubmits.add(id);
+		var request = new JsonObject();
+		request.addProperty("id", id);
+		request.addProperty("method", method);
+		request.add("params", params);
+		synchronized(out) {
+			try {
+				out.write(request.toString());
+				out.write('\n');
+				out.flush();
+			} catch(IOException e) {
+				if(!socket.isClosed()) Logger.getGlobal().warning("Stratum request " + method + " failed : " + e.getMessage());
+			}
+		}
+	}
+
+}
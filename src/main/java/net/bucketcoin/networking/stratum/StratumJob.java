@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.networking.stratum;
+
+import lombok.Getter;
+import net.bucketcoin.block.Block;
+import net.bucketcoin.node.MempoolEntry;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A block template handed out to Stratum clients.
+ */
+final class StratumJob {
+
+	@Getter
+	private final String id;
+	@Getter
+	private final Block block;
+	/**
+	 * The {@link net.bucketcoin.block.BlockHeader} of the block, with a zero nonce.
+	 */
+	private final byte[] header;
+	@Getter
+	private final long difficulty;
+	/**
+	 * The mempool entries whose transactions the template holds.
+	 */
+	@Getter
+	private final List<MempoolEntry> pooled;
+	private final Set<Long> submitted = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean solved = new AtomicBoolean(false);
+
+	StratumJob(@NotNull String id, @NotNull Block block, byte @NotNull [] header, long difficulty, @NotNull List<MempoolEntry> pooled) {
+		this.id = id;
+		this.block = block;
+		this.header = header;
+		this.difficulty = difficulty;
+		this.pooled = pooled;
+	}
+
+	byte @NotNull [] getHeader() {
+		return header.clone();
+	}
+
+	/**
+	 * Records a submitted nonce.
+	 * @return <code>false</code> if the nonce was already submitted for this job.
+	 */
+	boolean markSubmitted(long nonce) {
+		return submitted.add(nonce);
+	}
+
+	/**
+	 * Marks the job as solved.
+	 * @return <code>false</code> if the job was already solved.
+	 */
+	boolean markSolved() {
+		return solved.compareAndSet(false, true);
+	}
+
+	boolean isSolved() {
+		return solved.get();
+	}
+
+}
@@ -0,0 +1,424 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.networking.stratum;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import lombok.Getter;
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.BlockHeader;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.crypto.Bucketcoin;
+import net.bucketcoin.node.BlockBuilder;
+import net.bucketcoin.node.Mempool;
+import net.bucketcoin.node.MempoolEntry;
+import net.bucketcoin.node.Verifier;
+import net.bucketcoin.p2p.Broadcast;
+import net.bucketcoin.pow.DifficultyAlgorithm;
+import net.bucketcoin.pow.PowHasher;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A Stratum-style job server for pooled mining. Clients speak newline-delimited JSON-RPC:
+ * <ul>
+ *     <li><code>mining.subscribe</code> returns <code>[subscription, extranonce1, 4]</code>. The 4-byte
+ *     <i>extranonce1</i> is unique to the connection and fixes the upper half of the 8-byte header nonce,
+ *     so every client searches its own range and only varies the lower 4 bytes.</li>
+ *     <li><code>mining.authorize</code> with <code>[worker, password]</code> returns <code>true</code>.</li>
+ *     <li><code>mining.submit</code> with <code>[worker, job, nonce]</code>, the nonce being the full 8-byte
+ *     nonce in hexadecimal, returns whether the share was accepted.</li>
+ * </ul>
+ * The server pushes <code>mining.set_difficulty [share difficulty]</code> and
+ * <code>mining.notify [job, header, block difficulty, clean]</code>, where <i>header</i> is the
+ * {@link BlockHeader} in hexadecimal with a zero nonce. Every job is pushed with <i>clean</i> set, since it replaces
+ * the previous ones: a new job is pushed every time the chain tip changes, and when a solved block is rejected.
+ * Shares are validated on a thread pool, and shares for a job whose parent is no longer the tip are rejected as stale.
+ * A share that also meets the block difficulty is {@linkplain Verifier#accept(Block) accepted} onto the chain and broadcast.
+ * @see StratumClient
+ * @see net.bucketcoin.networking.ConnectionMode#Stratum
+ */
+public final class StratumServer implements Closeable {
+
+	public static final int EXTRANONCE2_SIZE = 4;
+	/**
+	 * How long {@link #close()} waits for the shares being validated.
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService connections;
+	private final ExecutorService validators = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+		var t = new Thread(null, r, "stratum-validator");
+		t.setDaemon(true);
+		return t;
+	});
+	private final boolean ownsConnections;
+	private final BlockBuilder builder;
+	private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+	private final Map<String, StratumJob> jobs = new ConcurrentHashMap<>();
+	private final AtomicInteger extranonces = new AtomicInteger(0);
+	private final AtomicLong jobCount = new AtomicLong(0);
+	private final Consumer<Block> tipListener = tip -> validators.execute(this::newJob);
+	private volatile @Nullable StratumJob currentJob;
+	private volatile boolean running = false;
+
+	@Getter
+	private volatile long shareDifficulty = 1;
+	@Getter
+	private final AtomicLong acceptedShares = new AtomicLong(0);
+	@Getter
+	private final AtomicLong rejectedShares = new AtomicLong(0);
+	@Getter
+	private final AtomicLong blocksFound = new AtomicLong(0);
+
+	/**
+	 * Creates a server listening on its own socket.
+	 * @param port The port to listen on, or 0 for any free port.
+	 * @param builder The builder that assembles the job templates.
+	 * @throws IOException if the socket cannot be opened.
+	 */
+	public StratumServer(int port, @NotNull BlockBuilder builder) throws IOException {
+		this(new ServerSocket(port), Executors.newCachedThreadPool(), builder, true);
+	}
+
+	/**
+	 * Creates a server on a socket owned by a {@link net.bucketcoin.networking.Peer}.
+	 * @param serverSocket The listening socket.
+	 * @param connections The executor that runs the client connections.
+	 * @param builder The builder that assembles the job templates.
+	 */
+	public StratumServer(@NotNull ServerSocket serverSocket, @NotNull ExecutorService connections, @NotNull BlockBuilder builder) {
+		this(serverSocket, connections, builder, false);
+	}
+
+	private StratumServer(ServerSocket serverSocket, ExecutorService connections, BlockBuilder builder, boolean ownsConnections) {
+		this.serverSocket = serverSocket;
+		this.connections = connections;
+		this.builder = builder;
+		this.ownsConnections = ownsConnections;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Sets the difficulty a share must meet to be accepted. It cannot exceed the block difficulty
+	 * to be useful, and is sent to the clients with the next job.
+	 * @param shareDifficulty The number of leading zero nibbles, at least 1 and at most {@link DifficultyAlgorithm#MAX_DIFFICULTY}.
+	 */
+	public void setShareDifficulty(long shareDifficulty) {
+		if(shareDifficulty < 1 || shareDifficulty > DifficultyAlgorithm.MAX_DIFFICULTY) throw new IllegalArgumentException("Share difficulty out of range");
+		this.shareDifficulty = shareDifficulty;
+	}
+
+	/**
+	 * Assembles the first job and starts accepting clients.
+	 * @throws IllegalStateException if the server is already running.
+	 */
+	public synchronized void start() {
+		if(running) throw new IllegalStateException("Stratum server already running");
+		running = true;
+		newJob();
+		Bucketcoin.getInstance().addTipListener(tipListener);
+		connections.execute(this::accept);
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(!running) return;
+			running = false;
+			Bucketcoin.getInstance().removeTipListener(tipListener);
+			serverSocket.close();
+			for(Session session : sessions) session.close();
+			validators.shutdownNow();
+			if(ownsConnections) connections.shutdownNow();
+		}
+		// a share being validated may still solve its job, so the jobs are retired once no share is left; the wait is
+		// outside the lock, which a validator takes to push a new job after a rejected block
+		try {
+			if(!validators.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				Logger.getGlobal().warning("Stratum server closed with shares still being validated");
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(StratumJob job : jobs.values()) retire(job);
+		jobs.clear();
+	}
+
+	private void accept() {
+		while(running) {
+			try {
+				final var session = new Session(serverSocket.accept(), extranonces.getAndIncrement());
+				sessions.add(session);
+				connections.execute(session);
+			} catch(SocketException e) {
+				return; // closed
+			} catch(IOException e) {
+				Logger.getGlobal().warning("Stratum accept failed : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Assembles a job on the chain tip, drops the previous jobs and pushes the new one to every subscribed client.
+	 * Shares for dropped jobs are rejected.
+	 */
+	synchronized void newJob() {
+		if(!running) return;
+
+		for(StratumJob job : jobs.values()) retire(job);
+		jobs.clear();
+
+		final List<MempoolEntry> pooled = builder.select();
+		final List<Blockable> candidates = new ArrayList<>();
+		for(MempoolEntry e : pooled) candidates.add(e.getTransaction());
+		final var block = new Block(Bucketcoin.getInstance().getLastBlock().getHash(), new ArrayList<>(builder.assemble(candidates, new ArrayList<>())));
+		final long difficulty = DifficultyAlgorithm.getDifficulty();
+		final var job = new StratumJob(Long.toHexString(jobCount.getAndIncrement()), block, BlockHeader.of(block, difficulty, 0), difficulty, pooled);
+
+		jobs.put(job.getId(), job);
+		currentJob = job;
+		for(Session session : sessions) session.notifyJob(job);
+	}
+
+	/**
+	 * Returns the transactions of an unsolved job to the mempool.
+	 */
+	private void retire(StratumJob job) {
+		if(job.isSolved()) return;
+		for(MempoolEntry e : job.getPooled()) Mempool.getInstance().addEntryToPool(e);
+	}
+
+	private void submit(Session session, JsonElement id, String jobId, String nonceHex) {
+
+		final StratumJob job = jobs.get(jobId);
+		if(job == null) {
+			reject(session, id, 21, "Job not found");
+			return;
+		}
+		// the tip may have moved before the clean job was pushed
+		if(!job.getBlock().getPrevHash().equals(Bucketcoin.getInstance().getLastBlock().getHash())) {
+			reject(session, id, 21, "Stale job");
+			return;
+		}
+
+		final long nonce;
+		try {
+			nonce = Long.parseUnsignedLong(nonceHex, 16);
+		} catch(NumberFormatException e) {
+			reject(session, id, 20, "Malformed nonce");
+			return;
+		}
+		if((int) (nonce >>> 32) != session.extranonce1) {
+			reject(session, id, 20, "Nonce outside of the assigned extranonce range");
+			return;
+		}
+		if(!job.markSubmitted(nonce)) {
+			reject(session, id, 22, "Duplicate share");
+			return;
+		}
+
+		final byte[] hash = new PowHasher(job.getHeader(), BlockHeader.NONCE_OFFSET).hash(nonce);
+		if(!DifficultyAlgorithm.meetsDifficulty(hash, Math.min(shareDifficulty, job.getDifficulty()))) {
+			reject(session, id, 23, "Low difficulty share");
+			return;
+		}
+
+		acceptedShares.incrementAndGet();
+		session.respond(id, new JsonPrimitive(true), JsonNull.INSTANCE);
+
+		if(DifficultyAlgorithm.meetsDifficulty(hash, job.getDifficulty()) && job.markSolved()) {
+			job.getBlock().seal(job.getDifficulty(), nonce);
+			final var result = Verifier.getInstance().accept(job.getBlock());
+			if(!result.isValid()) {
+				// the job is solved, so its transactions go back to the pool here, except the one that failed
+				Logger.getGlobal().warning("Stratum block found by " + session.worker + " rejected : " + result);
+				Mempool.getInstance().returnEntriesToPool(job.getPooled(), result.entry());
+				newJob(); // nobody can be paid for the solved job any more
+				return;
+			}
+			blocksFound.incrementAndGet();
+			Logger.getGlobal().info("Stratum block found by " + session.worker + " : " + new String(Hex.encodeHex(hash)));
+			Broadcast.block(job.getBlock());
+		}
+
+	}
+
+	private void reject(Session session, JsonElement id, int code, String message) {
+		rejectedShares.incrementAndGet();
+		var error = new JsonArray();
+		error.add(code);
+		error.add(message);
+		error.add(JsonNull.INSTANCE);
+		session.respond(id, new JsonPrimitive(false), error);
+	}
+
+	private final class Session implements Runnable, Closeable {
+
+		private final Socket socket;
+		private final int extranonce1;
+		private final Writer out;
+		private volatile boolean subscribed = false;
+		private volatile String worker = "";
+
+		private Session(Socket socket, int extranonce1) throws IOException {
+			this.socket = socket;
+			this.extranonce1 = extranonce1;
+			this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public void run() {
+			try(var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while((line = in.readLine()) != null) {
+					if(line.isBlank()) continue;
+					handle(JsonParser.parseString(line).getAsJsonObject());
+				}
+			} catch(IOException | RuntimeException e) {
+				if(running) Logger.getGlobal().fine("Stratum session closed : " + e.getMessage());
+			} finally {
+				close();
+			}
+		}
+
+		private void handle(JsonObject request) {
+			final JsonElement id = request.has("id") ? request.get("id") : JsonNull.INSTANCE;
+			final String method = request.get("method").getAsString();
+			final JsonArray params = request.has("params") ? request.getAsJsonArray("params") : new JsonArray();
+
+			switch(method) {
+				case "mining.subscribe" -> {
+					var result = new JsonArray();
+					result.add(Integer.toHexString(extranonce1));
+					result.add(String.format("%08x", extranonce1));
+					result.add(EXTRANONCE2_SIZE);
+					respond(id, result, JsonNull.INSTANCE);
+					subscribed = true;
+					final var job = currentJob;
+					if(job != null) notifyJob(job);
+				}
+				case "mining.authorize" -> {
+					worker = params.size() > 0 ? params.get(0).getAsString() : "";
+					respond(id, new JsonPrimitive(true), JsonNull.INSTANCE);
+				}
+				case "mining.submit" -> {
+					if(params.size() < 3) {
+						reject(this, id, 20, "Expected [worker, job, nonce]");
+						return;
+					}
+					final String jobId = params.get(1).getAsString();
+					final String nonce = params.get(2).getAsString();
+					validators.execute(() -> submit(this, id, jobId, nonce));
+				}
+				default -> {
+					var error = new JsonArray();
+					error.add(20);
+					error.add("Unknown method " + method);
+					error.add(JsonNull.INSTANCE);
+					respond(id, JsonNull.INSTANCE, error);
+				}
+			}
+		}
+
+		private void notifyJob(StratumJob job) {
+			if(!subscribed) return;
+			var difficulty = new JsonArray();
+			difficulty.add(shareDifficulty);
+			send(notification("mining.set_difficulty", difficulty));
+
+			var params = new JsonArray();
+			params.add(job.getId());
+			params.add(new String(Hex.encodeHex(job.getHeader())));
+			params.add(job.getDifficulty());
+			params.add(true);
+			send(notification("mining.notify", params));
+		}
+
+		private void respond(JsonElement id, JsonElement result, JsonElement error) {
+			var response = new JsonObject();
+			response.add("id", id);
+			response.add("result", result);
+			response.add("error", error);
+			send(response);
+		}
+
+		private JsonObject notification(String method, JsonArray params) {
+			var notification = new JsonObject();
+			notification.add("id", JsonNull.INSTANCE);
+			notification.addProperty("method", method);
+			notification.add("params", params);
+			return notification;
+		}
+
+		private void send(JsonObject message) {
+			synchronized(out) {
+				try {
+					out.write(message.toString());
+					out.write('\n');
+					out.flush();
+				} catch(IOException e) {
+					close();
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			sessions.remove(this);
+			try {
+				socket.close();
+			} catch(IOException ignored) {
+				// already closed
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import lombok.Getter;
+import net.bucketcoin.block.BlockCodec;
+import net.bucketcoin.block.Blockable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Packs many transactions into a single {@link net.bucketcoin.block.Block} with one reward {@link net.bucketcoin.block.Transaction},
+ * up to a byte budget. The builder keeps the number of transactions per block and how full the blocks are,
+ * so that the budget can be tuned.
+ */
+public final class BlockBuilder {
+
+    public static final long DEFAULT_BYTE_BUDGET = 1024 * 1024;
+
+    @Getter
+    private final long byteBudget;
+
+    /**
+     * The number of transactions, not counting the reward, in the last block assembled.
+     */
+    @Getter
+    private volatile int lastTransactionCount = 0;
+    /**
+     * The size of the last block assembled relative to the {@link #getByteBudget() byte budget}, from 0 to 1.
+     */
+    @Getter
+    private volatile double lastFillRatio = 0;
+    private final AtomicLong blocks = new AtomicLong(0);
+    private final AtomicLong transactions = new AtomicLong(0);
+    private final AtomicLong bytes = new AtomicLong(0);
+
+    /**
+     * Creates a builder with a budget of {@link #DEFAULT_BYTE_BUDGET}.
+     */
+    public BlockBuilder() {
+        this(DEFAULT_BYTE_BUDGET);
+    }
+
+    /**
+     * Creates a builder.
+     * @param byteBudget The maximum estimated size of the transactions in a block, in bytes.
+     * @throws IllegalArgumentException if <code>byteBudget < 1</code>.
+     */
+    public BlockBuilder(long byteBudget) {
+        if(byteBudget < 1) throw new IllegalArgumentException("Byte budget must be positive");
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Takes as many transactions from the {@link Mempool} as fit in the byte budget.
+     * @return The pooled entries taken.
+     */
+    public @NotNull List<MempoolEntry> select() {
+        return Mempool.getInstance().takeEntriesFromPool(byteBudget);
+    }
+
+    /**
+     * Packs transactions into block entries, followed by the reward, as long as they fit in the byte budget.
+     * @param candidates The transactions, in the order they should be included.
+     * @param overflow Receives the candidates that did not fit.
+     * @return The block entries.
+     * @throws IllegalStateException if the node is not initialized.
+     */
+    public @NotNull List<Blockable> assemble(@NotNull List<? extends Blockable> candidates, @NotNull Collection<? super Blockable> overflow) {
+
+        final List<Blockable> entries = new ArrayList<>(candidates.size() + 1);
+        long size = 0;
+        for(Blockable b : candidates) {
+            final long s = estimateSize(b);
+            if(size + s > byteBudget) {
+                overflow.add(b);
+            } else {
+                size += s;
+                entries.add(b);
+            }
+        }
+
+        lastTransactionCount = entries.size();
+        lastFillRatio = (double) size / byteBudget;
+        blocks.incrementAndGet();
+        transactions.addAndGet(entries.size());
+        bytes.addAndGet(size);
+
+        entries.add(Miner.reward());
+        return entries;
+
+    }
+
+    /**
+     * @return The average number of transactions, not counting the reward, in the blocks assembled.
+     */
+    public double getAverageTransactionsPerBlock() {
+        final long b = blocks.get();
+        return b == 0 ? 0 : (double) transactions.get() / b;
+    }
+
+    /**
+     * @return The average size of the blocks assembled relative to the {@link #getByteBudget() byte budget}, from 0 to 1.
+     */
+    public double getAverageFillRatio() {
+        final long b = blocks.get();
+        return b == 0 ? 0 : (double) bytes.get() / b / byteBudget;
+    }
+
+    /**
+     * Estimates how many bytes an entry takes up in a block, which is the length of its {@linkplain BlockCodec binary form}.
+     * @param blockable The entry.
+     * @return The estimated size in bytes.
+     */
+    public static long estimateSize(@NotNull Blockable blockable) {
+        return BlockCodec.sizeOf(blockable);
+    }
+
+}
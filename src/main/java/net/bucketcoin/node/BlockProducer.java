@@ -0,0 +1,290 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import lombok.Getter;
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.crypto.Bucketcoin;
+import net.bucketcoin.p2p.Broadcast;
+import net.bucketcoin.pow.CancellationToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * A pipelined block producer. Each stage runs on its own thread and hands its work to the
+ * next stage through a bounded queue:
+ * <ol>
+ *     <li><b>select</b> takes transactions from the {@link Mempool} up to the {@link BlockBuilder}'s budget,</li>
+ *     <li><b>assemble</b> packs them into a block template with one mining reward,</li>
+ *     <li><b>mine</b> binds the template to the chain tip and searches for the nonce,</li>
+ *     <li><b>publish</b> {@linkplain Verifier verifies} the block, pushes it onto the chain and broadcasts it.</li>
+ * </ol>
+ * While a block is being mined, the next template is already selected and assembled, so the
+ * miner starts on it as soon as the current block is published.
+ */
+public final class BlockProducer implements Closeable {
+
+    private static final long IDLE_MILLIS = 100;
+
+    private final BlockBuilder builder;
+    private final BlockingQueue<Template> selected;
+    private final BlockingQueue<Template> assembled;
+    private final BlockingQueue<Template> mined;
+    private final List<Thread> stages = new ArrayList<>(4);
+    private volatile boolean running = false;
+    private volatile @Nullable Block lastMined; // set by the mine stage, cleared by the publish stage when a block is rejected
+    private volatile @Nullable CancellationToken mining; // the current task of the mine stage
+
+    /**
+     * The stage timings of the last published block.
+     */
+    @Getter
+    private volatile @Nullable StageTimings lastTimings;
+
+    /**
+     * Creates a producer.
+     * @param builder The builder that selects and packs the transactions of every block.
+     * @param queueCapacity How many templates may wait between two stages.
+     * @throws IllegalArgumentException if <code>queueCapacity < 1</code>.
+     */
+    public BlockProducer(@NotNull BlockBuilder builder, int queueCapacity) {
+        if(queueCapacity < 1) throw new IllegalArgumentException();
+        this.builder = builder;
+        this.selected = new ArrayBlockingQueue<>(queueCapacity);
+        this.assembled = new ArrayBlockingQueue<>(queueCapacity);
+        this.mined = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Starts every stage.
+     * @throws IllegalStateException if the producer is already running.
+     */
+    public synchronized void start() {
+        if(running) throw new IllegalStateException("Block producer already running");
+        running = true;
+        stages.add(stage("select", this::select));
+        stages.add(stage("assemble", this::assemble));
+        stages.add(stage("mine", this::mine));
+        stages.add(stage("publish", this::publish));
+        stages.forEach(Thread::start);
+    }
+
+    /**
+     * Stops every stage. Transactions of templates that were not published go back to the {@link Mempool}.
+     */
+    @Override
+    public synchronized void close() {
+        if(!running) return;
+        running = false;
+        final var token = mining;
+        if(token != null) token.cancel(); // only the task of the mine stage; other miner tasks keep running
+        stages.forEach(Thread::interrupt);
+        for(Thread t : stages) {
+            try {
+                t.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        stages.clear();
+        for(BlockingQueue<Template> queue : List.of(selected, assembled, mined)) {
+            for(Template template : queue) template.release();
+            queue.clear();
+        }
+    }
+
+    /**
+     * Runs a stage until the producer is closed. A stage that fails is logged and runs again after a pause,
+     * so that a failure such as an uninitialized node does not stop the producer for good.
+     */
+    private @NotNull Thread stage(String name, Stage stage) {
+        var t = new Thread(null, () -> {
+            try {
+                while(running) {
+                    try {
+                        stage.run();
+                    } catch(RuntimeException e) {
+                        Logger.getGlobal().severe("Block producer stage " + name + " failed : " + e);
+                        Thread.sleep(IDLE_MILLIS);
+                    }
+                }
+            } catch(InterruptedException e) {
+                // closed
+            }
+        }, "block-producer-" + name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private void select() throws InterruptedException {
+        final long start = System.nanoTime();
+        final List<MempoolEntry> taken = builder.select();
+        if(taken.isEmpty()) {
+            Thread.sleep(IDLE_MILLIS);
+            return;
+        }
+        final var template = new Template(taken);
+        template.select = System.nanoTime() - start;
+        handOff(selected, template);
+    }
+
+    private void assemble() throws InterruptedException {
+        final var template = selected.take();
+        final long start = System.nanoTime();
+        final List<Blockable> candidates = new ArrayList<>();
+        for(MempoolEntry e : template.pooled) candidates.add(e.getTransaction());
+        try {
+            template.entries.addAll(builder.assemble(candidates, new ArrayList<>()));
+        } catch(RuntimeException e) {
+            template.release();
+            throw e;
+        }
+        template.assemble = System.nanoTime() - start;
+        handOff(assembled, template);
+    }
+
+    private void mine() throws InterruptedException {
+        final var template = assembled.take();
+        final long start = System.nanoTime();
+        boolean handedOff = false;
+        try {
+            // the parent is only known once the previous block is mined, so the template is bound here
+            Block block;
+            boolean solved;
+            do {
+                final Block pending = pending();
+                final String parent = pending == null ? Bucketcoin.getInstance().getLastBlock().getHash() : pending.getHash();
+                block = new Block(parent, new ArrayList<>(template.entries));
+                final var token = new CancellationToken();
+                mining = token;
+                if(!running) return; // closed before the token was published
+                solved = Miner.getInstance().mine(block, pending, token);
+            } while(!solved && running);
+            if(!running) return;
+            lastMined = block;
+            template.block = block;
+            template.mine = System.nanoTime() - start;
+            mined.put(template);
+            handedOff = true;
+        } finally {
+            if(!handedOff) template.release();
+        }
+    }
+
+    /**
+     * Returns the last block mined here if it extends the chain tip but has not been published yet, so that the
+     * next block is mined on it, or <code>null</code> to mine on the chain tip.
+     */
+    private @Nullable Block pending() {
+        final Block tip = Bucketcoin.getInstance().getLastBlock();
+        final Block last = lastMined;
+        if(last != null && last != tip && last.getPrevHash().equals(tip.getHash())) return last;
+        return null;
+    }
+
+    private void publish() throws InterruptedException {
+        final var template = mined.take();
+        final long start = System.nanoTime();
+        final Verifier.Result result;
+        try {
+            result = Verifier.getInstance().accept(template.block);
+        } catch(RuntimeException e) {
+            template.release();
+            throw e;
+        }
+        if(!result.isValid()) {
+            // the rest of the template goes back to the pool, so the next template is assembled without the failed entry
+            // or the later transactions of its sender
+            Logger.getGlobal().warning("Block " + template.block.getHash() + " rejected : " + result);
+            lastMined = null;
+            final var token = mining;
+            if(token != null) token.cancel(); // the next block may be mined on the rejected one
+            template.release(result.entry());
+            return;
+        }
+        Broadcast.block(template.block);
+        template.publish = System.nanoTime() - start;
+        final var timings = new StageTimings(template.select, template.assemble, template.mine, template.publish);
+        lastTimings = timings;
+        Logger.getGlobal().info("Block " + template.block.getHash() + " produced : " + timings);
+    }
+
+    private void handOff(BlockingQueue<Template> queue, Template template) throws InterruptedException {
+        try {
+            queue.put(template);
+        } catch(InterruptedException e) {
+            template.release();
+            throw e;
+        }
+    }
+
+    /**
+     * The time a block spent in every stage, in nanoseconds. Time spent waiting in the queues is not counted.
+     */
+    public record StageTimings(long select, long assemble, long mine, long publish) {
+
+        @Override
+        public String toString() {
+            return String.format("select %.3f ms, assemble %.3f ms, mine %.3f ms, publish %.3f ms",
+                    select / 1e6, assemble / 1e6, mine / 1e6, publish / 1e6);
+        }
+
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    private static final class Template {
+
+        private final List<MempoolEntry> pooled;
+        private final List<Blockable> entries = new ArrayList<>();
+        private Block block;
+        private long select, assemble, mine, publish;
+
+        private Template(List<MempoolEntry> pooled) {
+            this.pooled = pooled;
+        }
+
+        /**
+         * Returns the selected transactions to the mempool.
+         */
+        private void release() {
+            release(null);
+        }
+
+        /**
+         * Returns the selected transactions to the mempool, except <i>dropped</i>.
+         * @see Mempool#returnEntriesToPool(List, Blockable)
+         */
+        private void release(@Nullable Blockable dropped) {
+            Mempool.getInstance().returnEntriesToPool(pooled, dropped);
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The executable entries of the {@link Mempool} in an array, for uniform sampling in <code>O(1)</code>.
+ * Every entry knows its {@linkplain MempoolEntry#slot slot}, so that it is removed by moving the last
+ * entry into its slot instead of shifting the array.
+ * @apiNote This class is not thread-safe. The {@link Mempool} keeps one sampler per sender lock, guarded by that lock,
+ * so that entries of different senders are indexed in parallel.
+ */
+final class EntrySampler {
+
+    private MempoolEntry[] entries = new MempoolEntry[16];
+    private int size = 0;
+
+    void add(@NotNull MempoolEntry e) {
+        if(e.slot >= 0) return;
+        if(size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+        entries[size] = e;
+        e.slot = size++;
+    }
+
+    void remove(@NotNull MempoolEntry e) {
+        final int slot = e.slot;
+        if(slot < 0) return;
+        final MempoolEntry last = entries[--size];
+        entries[slot] = last;
+        last.slot = slot;
+        entries[size] = null;
+        e.slot = -1;
+    }
+
+    /**
+     * @param slot The slot, which a uniform pick draws from <code>[0, size())</code>.
+     * @return The entry in the slot.
+     * @throws IndexOutOfBoundsException if the slot is not filled.
+     */
+    @NotNull MempoolEntry get(int slot) {
+        return entries[Objects.checkIndex(slot, size)];
+    }
+
+    int size() {
+        return size;
+    }
+
+}
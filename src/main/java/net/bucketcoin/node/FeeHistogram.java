@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import org.jetbrains.annotations.Contract;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of gas fees in {@link #BUCKETS} geometric buckets. Bucket 0 holds the fees below {@link #MIN_FEE},
+ * and every further bucket spans {@link #RATIO} times the fees of the one before, so that the relative error of
+ * every fee read from the histogram is bounded by the ratio whether fees are tiny or huge. The histogram counts
+ * transactions and their {@linkplain MempoolEntry#getSize() estimated size} per bucket, and is updated as
+ * transactions come and go; reading it walks the buckets, never the transactions.
+ * <br><br>
+ * The histogram is safe for concurrent use. Every bucket is updated atomically, but a reader may see an
+ * update to one bucket before the update to another.
+ */
+public final class FeeHistogram {
+
+    public static final int BUCKETS = 128;
+    /**
+     * The lower bound of bucket 1, in 0.000001 BCKT.
+     */
+    public static final long MIN_FEE = 1;
+    /**
+     * The ratio between the bounds of consecutive buckets.
+     */
+    public static final double RATIO = 1.2;
+    private static final double LOG_RATIO = Math.log(RATIO);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bytes = new AtomicLongArray(BUCKETS);
+
+    void add(long gasFee, long size) {
+        final int b = bucketOf(gasFee);
+        counts.incrementAndGet(b);
+        bytes.addAndGet(b, size);
+    }
+
+    void remove(long gasFee, long size) {
+        final int b = bucketOf(gasFee);
+        counts.decrementAndGet(b);
+        bytes.addAndGet(b, -size);
+    }
+
+    /**
+     * @param gasFee A gas fee.
+     * @return The bucket that holds <i>gasFee</i>.
+     */
+    @Contract(pure = true)
+    public static int bucketOf(long gasFee) {
+        if(gasFee < MIN_FEE) return 0;
+        return (int) Math.min(BUCKETS - 1, 1 + Math.floor(Math.log((double) gasFee / MIN_FEE) / LOG_RATIO));
+    }
+
+    /**
+     * @return The lowest fee of a bucket, rounded up to a whole base unit, which is 0 for bucket 0.
+     */
+    @Contract(pure = true)
+    public static long lowerBound(int bucket) {
+        return bucket == 0 ? 0 : (long) Math.ceil(MIN_FEE * Math.pow(RATIO, bucket - 1));
+    }
+
+    /**
+     * @return The lowest fee of the next bucket. The last bucket also holds the fees above its upper bound.
+     */
+    @Contract(pure = true)
+    public static long upperBound(int bucket) {
+        return lowerBound(bucket + 1);
+    }
+
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getBytes(int bucket) {
+        return bytes.get(bucket);
+    }
+
+    /**
+     * @return The number of transactions in the histogram.
+     */
+    public long getTotalCount() {
+        long n = 0;
+        for(int b = 0; b < BUCKETS; b++) n += counts.get(b);
+        return n;
+    }
+
+    /**
+     * Finds the fee below which a fraction of the transactions pay, to within a bucket.
+     * @param percentile The fraction, from 0 to 1.
+     * @return The lower bound of the bucket holding the percentile, or 0 if the histogram is empty.
+     * @throws IllegalArgumentException if <i>percentile</i> is not between 0 and 1.
+     */
+    public long percentile(double percentile) {
+        if(!(percentile >= 0 && percentile <= 1)) throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        final long total = getTotalCount();
+        if(total <= 0) return 0;
+        final long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++) {
+            seen += counts.get(b);
+            if(seen >= rank && seen > 0) return lowerBound(b);
+        }
+        return lowerBound(BUCKETS - 1);
+    }
+
+    /**
+     * Finds the fee a transaction has to pay to be ahead of all but <i>bytesAhead</i> bytes of the transactions,
+     * highest fee first, as block selection goes.
+     * @param bytesAhead How many bytes of transactions may be ahead of it.
+     * @return The upper bound of the bucket where the transactions ahead reach <i>bytesAhead</i>, or 0 if they never do.
+     */
+    public long feeAhead(long bytesAhead) {
+        long ahead = 0;
+        for(int b = BUCKETS - 1; b >= 0; b--) {
+            ahead += bytes.get(b);
+            if(ahead > bytesAhead) return upperBound(b);
+        }
+        return 0;
+    }
+
+}
@@ -17,121 +17,1118 @@
 package net.bucketcoin.node;
 
 import lombok.Getter;
+import lombok.Setter;
 import lombok.SneakyThrows;
-import net.bucketcoin.crypto.Bucketcoin;
 import net.bucketcoin.block.Block;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.block.Trade;
 import net.bucketcoin.block.Transaction;
+import net.bucketcoin.collections.TimerWheel;
+import net.bucketcoin.crypto.state.StateTrie;
 import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import javax.crypto.IllegalBlockSizeException;
-import java.security.SecureRandom;
-import java.util.LinkedHashSet;
-import java.util.Objects;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
 import java.util.logging.Logger;
 
+/**
+ * The pool of pending transactions, each held in a {@link MempoolEntry}. Entries are indexed twice:
+ * by gas fee in a sorted set, so that the best and worst transactions are found in <code>O(log n)</code>,
+ * and by {@linkplain MempoolEntry#getHash() hash}, so that lookups and removals do not scan the pool.
+ * <br><br>
+ * Transactions are ordered per sender by their {@linkplain Transaction#getNonce() nonce}. Every sender has a
+ * queue, and only its head, the transaction with the next nonce the sender's state expects, is <i>executable</i>
+ * and enters the fee index. Transactions with a later nonce are <i>parked</i> until the gap before them fills,
+ * and transactions with a nonce the sender already used are rejected. Entries without a nonce are always executable.
+ * {@link Trade}s are rejected, since the {@link Verifier} rejects blocks holding them until they are signed.
+ * <br><br>
+ * Two transactions with the same sender and nonce conflict, and only one of them can be pooled. A conflicting
+ * transaction replaces the pooled one if it pays at least {@linkplain #setMinFeeBumpBps(long) a minimum fraction}
+ * more gas fees, and is rejected otherwise. Conflicts are found through a hash index by sender and nonce.
+ * <br><br>
+ * The pool is bounded by a number of transactions and by their total {@linkplain MempoolEntry#getSize() estimated size}.
+ * A transaction that does not fit evicts the lowest-fee executable transactions, together with whatever their
+ * senders have queued behind them, if it pays a higher fee than all of them, and is rejected otherwise. At most a
+ * quarter of the pool can be parked.
+ * <br><br>
+ * The executable transactions are counted in a {@link FeeHistogram} that is updated on every change to the fee
+ * index, so that wallets can {@linkplain #estimateFee(int) estimate} the fee that gets a transaction mined within
+ * a number of blocks without the pool being scanned.
+ * <br><br>
+ * Transactions expire after a {@linkplain #setTimeToLive(long, Duration) time to live} that depends on the gas fees
+ * they pay. Expiry deadlines are kept in a {@link TimerWheel} ticking every {@link #EXPIRY_TICK}, so that admitting,
+ * removing and expiring a transaction each cost <code>O(1)</code> however large the pool is, and the pool is never
+ * scanned. An expired transaction is removed like an evicted one: its nonce is not used up, and the transactions its
+ * sender queued behind it stay parked until they expire in turn or the nonce is submitted again.
+ * <br><br>
+ * The pool is safe for concurrent use. Both indexes are lock-free, and transactions from different senders are
+ * admitted and removed in parallel: every sender maps to one of {@link #STRIPES} locks, taken together with
+ * the shared side of a pool lock, which also guards the sender's queue. Each lock has its own expiry wheel and
+ * random-selection sampler, so no lock is shared by all senders. Operations that need the whole pool
+ * to stand still, namely {@linkplain #snapshot() snapshots}, block selection and eviction, take the exclusive side.
+ */
 @SuppressWarnings("UnusedReturnValue")
 public final class Mempool {
 
+    /**
+     * Lowest fee first; entries with the same fee are ordered by arrival.
+     */
+    private static final Comparator<MempoolEntry> FEE_ORDER = Comparator
+            .comparingLong(MempoolEntry::getGasFee)
+            .thenComparingLong(MempoolEntry::getSequence);
+
+    public static final int DEFAULT_MAX_TRANSACTIONS = 100_000;
+    public static final long DEFAULT_MAX_BYTES = 300L * 1024 * 1024;
+    /**
+     * The number of sender locks.
+     */
+    public static final int STRIPES = 64;
+    /**
+     * The number of transactions a single sender can have parked.
+     */
+    public static final int MAX_PARKED_PER_SENDER = 64;
+    /**
+     * A replacement has to pay at least 10% more gas fees than the transaction it replaces.
+     */
+    public static final long DEFAULT_MIN_FEE_BUMP_BPS = 1_000;
+    /**
+     * The basis points of a whole: a fee bump of <code>BPS</code> basis points doubles the fee.
+     */
+    public static final long BPS = 10_000;
+    /**
+     * How long transactions stay in the pool unless a fee tier is {@linkplain #setTimeToLive(long, Duration) configured}.
+     */
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(72);
+    /**
+     * The resolution of transaction expiry.
+     */
+    public static final Duration EXPIRY_TICK = Duration.ofSeconds(1);
+
     private static final Mempool mempool = new Mempool();
 
+    private final ConcurrentSkipListSet<MempoolEntry> byFee = new ConcurrentSkipListSet<>(FEE_ORDER);
+    private final ConcurrentHashMap<String, MempoolEntry> byHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SenderQueue> senders = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger(0);
+    private final AtomicInteger parked = new AtomicInteger(0);
+    private final AtomicLong bytes = new AtomicLong(0);
+    /**
+     * The fees of the executable transactions, that is of the fee index.
+     */
     @Getter
-    private final LinkedHashSet<Block> blocks = new LinkedHashSet<>(30);
+    private final FeeHistogram feeHistogram = new FeeHistogram();
+    /**
+     * The executable transactions again, for {@linkplain #takeRandomEntryFromPool() random selection}, with one sampler
+     * per sender lock, guarded by that lock.
+     */
+    private final EntrySampler[] samplers = new EntrySampler[STRIPES];
+    /**
+     * Draws the random selections; guarded by the exclusive pool lock.
+     */
+    private SplittableRandom random = new SplittableRandom();
 
-    private Mempool() { /* This is a singleton class. */ }
+    private final ReadWriteLock poolLock = new ReentrantReadWriteLock();
+    private final Lock[] stripes = new Lock[STRIPES];
+
+    private volatile int maxTransactions = DEFAULT_MAX_TRANSACTIONS;
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+    /**
+     * The number of pooled transactions evicted by higher-fee transactions.
+     */
+    private final AtomicLong evicted = new AtomicLong(0);
+    /**
+     * The number of transactions rejected because the pool was full of higher-fee transactions, because they
+     * were larger than the pool, because of their nonce, or because they are trades.
+     */
+    private final AtomicLong rejected = new AtomicLong(0);
+    /**
+     * The number of pooled transactions replaced by one with the same sender and nonce that pays more.
+     */
+    private final AtomicLong replaced = new AtomicLong(0);
+
+    /**
+     * The fraction by which a transaction has to outbid the pooled one with the same sender and nonce to replace it,
+     * in basis points.
+     */
+    private volatile long minFeeBumpBps = DEFAULT_MIN_FEE_BUMP_BPS;
+
+    /**
+     * The time to live in milliseconds by the lowest gas fee of each tier. It is replaced, never modified.
+     */
+    private volatile NavigableMap<Long, Long> timeToLive = new TreeMap<>(Map.of(Long.MIN_VALUE, DEFAULT_TIME_TO_LIVE.toMillis()));
+    /**
+     * The expiry deadline of every pooled entry, with one wheel per sender lock, guarded by that lock.
+     */
+    private final TimerWheel<MempoolEntry>[] expiry;
+    /**
+     * The number of pooled transactions that outlived their time to live.
+     */
+    private final AtomicLong expired = new AtomicLong(0);
+    private final ScheduledExecutorService expiryService = Executors.newSingleThreadScheduledExecutor(r -> {
+        var t = new Thread(null, r, "mempool-expiry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Looks up the next nonce of a sender that has no queue yet; a queue keeps the nonce and follows the mined blocks
+     * from there, so the source is not read again while the sender has one. The default reads the {@link StateTrie},
+     * and falls back to 0 while the node is not initialized or the sender has no account; any other failure is thrown.
+     */
+    @Setter @NotNull
+    private volatile ToLongFunction<String> nonceSource = Mempool::stateNonce;
+
+    private volatile @Nullable MempoolJournal journal;
+    /**
+     * The journaled entries taken for a block that is not mined yet, by hash. They stay in the journal until
+     * their block is mined, so that a crash while mining does not lose them.
+     */
+    private final Map<String, MempoolEntry> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private Mempool() {
+        /* This is a singleton class. */
+        final long tick = EXPIRY_TICK.toMillis();
+        final long start = System.currentTimeMillis();
+        expiry = (TimerWheel<MempoolEntry>[]) new TimerWheel<?>[STRIPES];
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+            samplers[i] = new EntrySampler();
+            expiry[i] = new TimerWheel<>(tick, start);
+        }
+        expiryService.scheduleWithFixedDelay(this::expire, tick, tick, TimeUnit.MILLISECONDS);
+    }
 
     public static Mempool getInstance() {
         return mempool;
     }
 
     /**
-     *
-     * @return The {@link Block} with the highest gas fees.
-     * @throws IllegalBlockSizeException if gas fees for the block are negative
+     * Copies the executable part of the pool as it is at one instant; nothing is added or removed while the copy is made.
+     * @return The executable entries, highest gas fee first.
+     */
+    public @NotNull List<MempoolEntry> snapshot() {
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            return new ArrayList<>(byFee.descendingSet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The executable entries, highest gas fee first.
+     * @see #snapshot()
+     */
+    public @NotNull List<MempoolEntry> getEntries() {
+        return snapshot();
+    }
+
+    /**
+     * @return The number of pooled transactions, executable or parked.
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * @return The number of pooled transactions waiting for an earlier nonce of their sender.
+     */
+    public int getParkedCount() {
+        return parked.get();
+    }
+
+    /**
+     * @return The total {@linkplain MempoolEntry#getSize() estimated size} of the pooled transactions, in bytes.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public int getMaxTransactions() {
+        return maxTransactions;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getReplacedCount() {
+        return replaced.get();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public long getMinFeeBumpBps() {
+        return minFeeBumpBps;
+    }
+
+    /**
+     * Sets how much more gas fees a transaction has to pay than the pooled one with the same sender and nonce to replace it.
+     * @param minFeeBumpBps The minimum increase in basis points of the pooled transaction's fees, such as <code>1000</code> for 10%.
+     * @throws IllegalArgumentException if <i>minFeeBumpBps</i> is negative.
+     */
+    public void setMinFeeBumpBps(long minFeeBumpBps) {
+        if(minFeeBumpBps < 0) throw new IllegalArgumentException("Fee bump must not be negative");
+        this.minFeeBumpBps = minFeeBumpBps;
+    }
+
+    /**
+     * Estimates the gas fee a transaction has to pay to be mined within <i>targetBlocks</i> blocks of
+     * {@link BlockBuilder#DEFAULT_BYTE_BUDGET}, if no transaction arrives in the meantime.
+     * @param targetBlocks The number of blocks.
+     * @return The fee, or 0 if the executable transactions all fit in the blocks.
+     * @see #estimateFee(int, long)
+     */
+    public long estimateFee(int targetBlocks) {
+        return estimateFee(targetBlocks, BlockBuilder.DEFAULT_BYTE_BUDGET);
+    }
+
+    /**
+     * Estimates the gas fee a transaction has to pay to be mined within <i>targetBlocks</i> blocks, that is
+     * to leave fewer executable transactions ahead of it than fill the blocks. The estimate is read from the
+     * {@linkplain #getFeeHistogram() fee histogram}, in constant time, and overshoots by at most one bucket.
+     * @param targetBlocks The number of blocks.
+     * @param blockBytes The byte budget of a block.
+     * @return The fee, or 0 if the executable transactions all fit in the blocks.
+     * @throws IllegalArgumentException if <code>targetBlocks < 1</code> or <code>blockBytes < 1</code>.
+     */
+    public long estimateFee(int targetBlocks, long blockBytes) {
+        if(targetBlocks < 1 || blockBytes < 1) throw new IllegalArgumentException("Target blocks and block size must be positive");
+        final long capacity = blockBytes > Long.MAX_VALUE / targetBlocks ? Long.MAX_VALUE : targetBlocks * blockBytes;
+        return feeHistogram.feeAhead(capacity);
+    }
+
+    /**
+     * @param gasFee The gas fees of a transaction.
+     * @return How long a transaction paying <i>gasFee</i> stays in the pool.
+     */
+    public @NotNull Duration getTimeToLive(long gasFee) {
+        final var tier = timeToLive.floorEntry(gasFee);
+        return Duration.ofMillis(tier == null ? timeToLive.firstEntry().getValue() : tier.getValue());
+    }
+
+    /**
+     * Sets the time to live of a fee tier, which holds the transactions paying at least <i>minGasFee</i> and less than
+     * the next tier. Transactions paying less than every tier use the lowest one; by default, a single tier holds
+     * every transaction for {@link #DEFAULT_TIME_TO_LIVE}. Transactions that are already pooled keep their deadline.
+     * The time to live counts from the {@linkplain MempoolEntry#getArrival() arrival} of a transaction.
+     * @param minGasFee The lowest gas fee of the tier.
+     * @param ttl How long the transactions of the tier stay in the pool.
+     * @throws IllegalArgumentException if <i>ttl</i> is not positive.
+     */
+    public synchronized void setTimeToLive(long minGasFee, @NotNull Duration ttl) {
+        if(ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("Time to live must be positive");
+        final var tiers = new TreeMap<>(timeToLive);
+        tiers.put(minGasFee, ttl.toMillis());
+        timeToLive = tiers;
+    }
+
+    /**
+     * Sets the capacity of the pool. If the pool holds more than the new limits, the lowest-fee transactions are evicted.
+     * @param maxTransactions The maximum number of pooled transactions.
+     * @param maxBytes The maximum total {@linkplain MempoolEntry#getSize() estimated size} of the pooled transactions.
+     * @throws IllegalArgumentException if <code>maxTransactions < 1</code> or <code>maxBytes < 1</code>.
+     */
+    public void setLimits(int maxTransactions, long maxBytes) {
+        if(maxTransactions < 1 || maxBytes < 1) throw new IllegalArgumentException("Mempool limits must be positive");
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            this.maxTransactions = maxTransactions;
+            this.maxBytes = maxBytes;
+            while((count.get() > maxTransactions || bytes.get() > maxBytes) && !byFee.isEmpty()) {
+                evicted.addAndGet(evict(byFee.first()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Restores the transactions recorded in a journal, then records every admission and removal in it from now on.
+     * The journal is replayed through a memory mapping and rewritten with the restored transactions. Transactions
+     * are journaled without their arrival time, so the restored transactions start a new
+     * {@linkplain #setTimeToLive(long, Duration) time to live}.
+     * @param file The journal file. It is created if it does not exist.
+     * @return The number of transactions restored.
+     * @throws IOException if the journal cannot be read or written.
+     * @throws IllegalStateException if a journal is already open.
+     */
+    public int openJournal(@NotNull Path file) throws IOException {
+
+        if(journal != null) throw new IllegalStateException("Mempool journal is already open");
+        final long start = System.nanoTime();
+        final MempoolJournal.Replay replay = MempoolJournal.replay(file);
+        int restored = 0;
+        for(Blockable b : replay.entries()) {
+            if(addTransactionToPool(b)) restored++;
+        }
+
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            final var j = new MempoolJournal(file, replay.records(), this::size, this::compactJournal);
+            inFlight.clear();
+            j.rewrite(pooledEntries());
+            journal = j;
+        } finally {
+            lock.unlock();
+        }
+        Logger.getGlobal().info("Mempool restored " + restored + " transactions from " + file + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return restored;
+
+    }
+
+    /**
+     * Stops journaling. The journal keeps the transactions pooled until now, and the taken ones whose block was not mined.
+     */
+    public void closeJournal() throws IOException {
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            final var j = journal;
+            journal = null;
+            inFlight.clear();
+            if(j != null) j.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void compactJournal() {
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            final var j = journal;
+            if(j != null) {
+                final List<MempoolEntry> entries = pooledEntries();
+                entries.addAll(inFlight.values());
+                j.rewrite(entries);
+            }
+        } catch(IOException e) {
+            Logger.getGlobal().warning("Mempool journal compaction failed : " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Every pooled entry, executable or parked, in arrival order. Called with the pool lock held exclusively.
+     */
+    private List<MempoolEntry> pooledEntries() {
+        final List<MempoolEntry> entries = new ArrayList<>(byHash.values());
+        entries.sort(Comparator.comparingLong(MempoolEntry::getSequence));
+        return entries;
+    }
+
+    /**
+     * @return The executable entry with the highest gas fees, or <code>null</code> if there is none.
+     */
+    @Contract(pure = true)
+    public @Nullable MempoolEntry getHighestGasPriceEntry() {
+        try {
+            return byFee.last();
+        } catch(NoSuchElementException empty) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The executable entry with the lowest gas fees, or <code>null</code> if there is none.
      */
     @Contract(pure = true)
-    public @Nullable Block getHighestGasPriceBlock() throws IllegalBlockSizeException {
-        if(blocks.size() == 0) {
+    public @Nullable MempoolEntry getLowestGasPriceEntry() {
+        try {
+            return byFee.first();
+        } catch(NoSuchElementException empty) {
             return null;
         }
-        blocks.add(Bucketcoin.getInstance().getGenesis());
-        Block highestGasPrice = new Block("", new Transaction(0, "", "", 0));
-        final Block origin = new Block("", new Transaction(0, "", "", 0));
-        for(Block b: blocks) {
+    }
+
+    /**
+     * Looks up a pooled transaction, executable or parked.
+     * @param hash The {@linkplain MempoolEntry#getHash() entry hash}.
+     * @return The entry, or <code>null</code> if it is not in the pool.
+     */
+    public @Nullable MempoolEntry getEntry(@NotNull String hash) {
+        return byHash.get(hash);
+    }
+
+    public boolean contains(@NotNull String hash) {
+        return byHash.containsKey(hash);
+    }
+
+    /**
+     * Returns the nonce a new transaction of <i>sender</i> should carry: the next nonce its state expects,
+     * after the transactions it already has pooled in a row from there.
+     * @param sender The sender.
+     * @return The nonce.
+     */
+    public long nextNonce(@NotNull String sender) {
+        final Lock shared = poolLock.readLock();
+        final Lock stripe = stripeFor(sender);
+        shared.lock();
+        stripe.lock();
+        try {
+            final SenderQueue queue = senders.get(sender);
+            if(queue == null) return nonceSource.applyAsLong(sender);
+            long nonce = queue.next;
+            while(queue.pending.containsKey(nonce)) nonce++;
+            return nonce;
+        } finally {
+            stripe.unlock();
+            shared.unlock();
+        }
+    }
+
+    /**
+     * Adds a transaction that arrives now to the pool.
+     * @param transaction The transaction to be added to the mempool.
+     * @return Whether the transaction could be added.
+     * @see #addEntryToPool(MempoolEntry)
+     */
+    public boolean addTransactionToPool(@NotNull Blockable transaction) {
+        return addEntryToPool(new MempoolEntry(transaction));
+    }
+
+    /**
+     * Adds a transaction to the pool. If the pool is full, the lowest-fee transactions are evicted to make room
+     * when every one of them pays a lower fee than <i>e</i>; otherwise <i>e</i> is rejected.
+     * @param e The entry to be added to the mempool. An entry taken from the pool can be added back; if it is rejected,
+     *          it is removed from the journal.
+     * @return Whether the entry could be added. This is <code>false</code> if the transaction is already pooled or was rejected.
+     */
+    public boolean addEntryToPool(@NotNull MempoolEntry e) {
+        final boolean added = insert(e);
+        if(!added && !byHash.containsKey(e.getHash())) forgetTaken(e);
+        return added;
+    }
+
+    /**
+     * Adds taken entries back to the pool after their block was rejected. The entry that made the block invalid is
+     * dropped, and its sender's queue is moved back to its nonce, so that the sender's later transactions are parked
+     * until a transaction with that nonce arrives, instead of being mined without it.
+     * @param taken The entries taken for the block.
+     * @param failed The block entry that made the block invalid, or <code>null</code> to add every entry back.
+     * @return The number of entries added back.
+     */
+    public int returnEntriesToPool(@NotNull List<MempoolEntry> taken, @Nullable Blockable failed) {
+        MempoolEntry dropped = null;
+        for(MempoolEntry e : taken) {
+            if(e.getTransaction() == failed) dropped = e;
+        }
+        if(dropped != null) {
+            forgetTaken(dropped);
+            if(dropped.getSender() != null) park(dropped.getSender(), dropped.getNonce());
+        }
+        int added = 0;
+        for(MempoolEntry e : taken) {
+            if(e != dropped && addEntryToPool(e)) added++;
+        }
+        return added;
+    }
+
+    /**
+     * Moves the next nonce of a sender back to a nonce that was taken but will not be mined, which parks the
+     * sender's transactions after it.
+     */
+    private void park(String sender, long nonce) {
+        final Lock shared = poolLock.readLock();
+        final Lock stripe = stripeFor(sender);
+        shared.lock();
+        stripe.lock();
+        try {
+            final SenderQueue queue = senders.get(sender);
+            if(queue != null && nonce < queue.next && nonce >= queue.stateNonce) rewind(queue, nonce);
+        } finally {
+            stripe.unlock();
+            shared.unlock();
+        }
+    }
+
+    private boolean insert(MempoolEntry e) {
+
+        if(byHash.containsKey(e.getHash())) return false;
+        if(e.getTransaction() instanceof Trade) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        final Lock shared = poolLock.readLock();
+        final Lock stripe = stripeFor(e);
+        shared.lock();
+        stripe.lock();
+        try {
+            final Admission admission = admit(e, false);
+            if(admission != Admission.EXCLUSIVE) return admission == Admission.ADDED;
+        } finally {
+            stripe.unlock();
+            shared.unlock();
+        }
 
-            if(highestGasPrice.getGasFee() < b.getGasFee()) {
-                highestGasPrice = b;
+        // the pool is full or the transaction replaces another, so the pool has to stand still
+        final Lock exclusive = poolLock.writeLock();
+        exclusive.lock();
+        try {
+            final Admission admission = admit(e, true);
+            if(admission != Admission.EXCLUSIVE) return admission == Admission.ADDED;
+            if(!makeRoom(e)) {
+                rejected.incrementAndGet();
+                return false;
             }
+            return admit(e, true) == Admission.ADDED;
+        } finally {
+            exclusive.unlock();
+        }
+
+    }
+
+    /**
+     * The outcome of an admission attempt. {@link #EXCLUSIVE} means that the entry can only be admitted
+     * with the pool lock held exclusively, because the pool is full or because the entry replaces another.
+     */
+    private enum Admission { ADDED, REJECTED, EXCLUSIVE }
+
+    /**
+     * Checks the nonce of <i>e</i>, claims room for it and inserts it. Called with its sender's lock or the exclusive pool lock.
+     * @param exclusive Whether the pool lock is held exclusively.
+     */
+    private Admission admit(MempoolEntry e, boolean exclusive) {
+
+        if(byHash.containsKey(e.getHash())) return Admission.REJECTED;
 
+        SenderQueue queue = null;
+        if(e.getSender() != null) {
+            queue = senders.computeIfAbsent(e.getSender(), s -> new SenderQueue(nonceSource.applyAsLong(s)));
+            final MempoolEntry conflict = queue.pending.get(e.getNonce());
+            if(conflict != null) {
+                if(!outbids(e, conflict)) {
+                    rejected.incrementAndGet();
+                    return Admission.REJECTED;
+                }
+                return exclusive ? replace(conflict, e, queue) : Admission.EXCLUSIVE;
+            }
+            if(e.getNonce() < queue.next && e.getNonce() >= queue.stateNonce) {
+                // taken for a block that was not mined, so the sender's queue resumes from it
+                rewind(queue, e.getNonce());
+            }
+            if(e.getNonce() < queue.next || e.getNonce() != queue.next
+                    && (queue.pending.size() >= MAX_PARKED_PER_SENDER || parked.get() >= maxTransactions / 4)) {
+                dropIfIdle(e.getSender(), queue);
+                rejected.incrementAndGet();
+                return Admission.REJECTED;
+            }
+        }
+
+        if(!reserve(e)) {
+            if(queue != null) dropIfIdle(e.getSender(), queue);
+            return Admission.EXCLUSIVE;
         }
-        if(highestGasPrice.equals(origin)) {
-            throw new IllegalBlockSizeException("Gas fee is negative");
+        if(!link(e, queue)) {
+            release(e);
+            return Admission.REJECTED;
         }
-        return highestGasPrice;
+        return Admission.ADDED;
+
     }
 
-    public @Nullable Block getLowestGasPriceBlock() throws IllegalBlockSizeException {
-        if(blocks.size() == 0) {
-            return null;
+    /**
+     * Whether <i>e</i> pays enough more than the pooled transaction with the same sender and nonce to replace it.
+     */
+    private boolean outbids(MempoolEntry e, MempoolEntry pooled) {
+        final long fee = e.getGasFee();
+        final long old = pooled.getGasFee();
+        if(fee <= old) return false;
+        // both fees are non-negative, so the difference cannot overflow; the products are exact or the replacement is rejected
+        try {
+            return Math.multiplyExact(fee - old, BPS) >= Math.multiplyExact(old, minFeeBumpBps);
+        } catch(ArithmeticException overflow) {
+            return false;
+        }
+    }
+
+    /**
+     * Replaces a pooled transaction with one of the same sender and nonce, which takes over its place in the queue.
+     * The replacement is rejected if it is larger than the room the pool has. Called with the pool lock held exclusively.
+     */
+    private Admission replace(MempoolEntry pooled, MempoolEntry e, SenderQueue queue) {
+        unlink(pooled, queue);
+        if(!reserve(e)) {
+            reserve(pooled);
+            link(pooled, queue);
+            rejected.incrementAndGet();
+            return Admission.REJECTED;
+        }
+        link(e, queue);
+        replaced.incrementAndGet();
+        return Admission.ADDED;
+    }
+
+    /**
+     * Inserts a reserved entry into the indexes and its sender's queue, if it has one.
+     * @return <code>false</code> if the transaction is already pooled.
+     */
+    private boolean link(MempoolEntry e, @Nullable SenderQueue queue) {
+        if(byHash.putIfAbsent(e.getHash(), e) != null) return false;
+        if(queue != null) queue.pending.put(e.getNonce(), e);
+        if(queue == null || e.getNonce() == queue.next) index(e);
+        else parked.incrementAndGet();
+        final long deadline = e.getArrival() + getTimeToLive(e.getGasFee()).toMillis();
+        e.timeout = expiry[stripeOf(e)].schedule(e, deadline);
+        final var j = journal;
+        if(j != null && inFlight.remove(e.getHash()) == null) j.added(e); // a taken entry coming back is still journaled
+        return true;
+    }
+
+    private boolean unlink(MempoolEntry e, @Nullable SenderQueue queue) {
+        return unlink(e, queue, true);
+    }
+
+    /**
+     * Removes an entry from the indexes and its sender's queue, if it has one, and releases its room.
+     * @param journaled Whether the removal is journaled. Taken entries are only removed from the journal once mined.
+     * @return <code>false</code> if another thread removed it first.
+     */
+    private boolean unlink(MempoolEntry e, @Nullable SenderQueue queue, boolean journaled) {
+        if(!byHash.remove(e.getHash(), e)) return false;
+        release(e);
+        if(e.timeout != null) expiry[stripeOf(e)].cancel(e.timeout);
+        e.timeout = null;
+        final var j = journal;
+        if(j != null) {
+            if(journaled) j.removed(e);
+            else inFlight.put(e.getHash(), e);
+        }
+        if(queue == null || e.getNonce() == queue.next) unindex(e);
+        else parked.decrementAndGet();
+        if(queue != null) queue.pending.remove(e.getNonce());
+        return true;
+    }
+
+    /**
+     * Makes an entry executable. Every change to the fee index goes through here and {@link #unindex(MempoolEntry)},
+     * so that the {@linkplain #getFeeHistogram() fee histogram} and the sampler follow it.
+     */
+    private void index(MempoolEntry e) {
+        if(byFee.add(e)) {
+            feeHistogram.add(e.getGasFee(), e.getSize());
+            samplers[stripeOf(e)].add(e);
+        }
+    }
+
+    private void unindex(MempoolEntry e) {
+        if(byFee.remove(e)) {
+            feeHistogram.remove(e.getGasFee(), e.getSize());
+            samplers[stripeOf(e)].remove(e);
+        }
+    }
+
+    /**
+     * Claims room for <i>e</i> in the counters if the pool has it.
+     */
+    private boolean reserve(MempoolEntry e) {
+        if(count.incrementAndGet() > maxTransactions) {
+            count.decrementAndGet();
+            return false;
+        }
+        if(bytes.addAndGet(e.getSize()) > maxBytes) {
+            release(e);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(MempoolEntry e) {
+        count.decrementAndGet();
+        bytes.addAndGet(-e.getSize());
+    }
+
+    /**
+     * Evicts the lowest-fee executable transactions, and the transactions queued behind them, until <i>e</i> fits,
+     * if they all pay a lower fee than <i>e</i>. Nothing is evicted when <i>e</i> cannot be made to fit.
+     * Called with the pool lock held exclusively.
+     * @return Whether <i>e</i> fits.
+     */
+    private boolean makeRoom(MempoolEntry e) {
+        if(e.getSize() > maxBytes) return false;
+        int n = count.get() + 1;
+        long size = bytes.get() + e.getSize();
+        final List<MempoolEntry> victims = new ArrayList<>();
+        for(Iterator<MempoolEntry> it = byFee.iterator(); (n > maxTransactions || size > maxBytes) && it.hasNext(); ) {
+            final MempoolEntry lowest = it.next();
+            if(lowest.getGasFee() >= e.getGasFee()) return false;
+            if(lowest.getSender() != null && lowest.getSender().equals(e.getSender())) return false;
+            victims.add(lowest);
+            final SenderQueue queue = lowest.getSender() == null ? null : senders.get(lowest.getSender());
+            for(MempoolEntry v : queue == null ? List.of(lowest) : queue.pending.values()) {
+                n--;
+                size -= v.getSize();
+            }
         }
-        blocks.add(Bucketcoin.getInstance().getGenesis());
-        Block lowestGasPrice = new Block("", new Transaction(0, "", "", 1999999999));
-        final Block origin = new Block("", new Transaction(0, "", "", 1999999999));
-        for(Block b: blocks) {
+        if(n > maxTransactions || size > maxBytes) return false;
+        for(MempoolEntry v : victims) evicted.addAndGet(evict(v));
+        return true;
+    }
+
+    /**
+     * Removes an executable entry and every entry its sender queued behind it. The sender's next nonce does not move.
+     * @return The number of entries removed.
+     */
+    private int evict(MempoolEntry head) {
+        if(head.getSender() == null) return remove(head, false) ? 1 : 0;
+        final SenderQueue queue = senders.get(head.getSender());
+        int removed = 0;
+        for(MempoolEntry e : new ArrayList<>(queue.pending.values())) {
+            if(remove(e, false)) removed++;
+        }
+        return removed;
+    }
 
-            if(lowestGasPrice.getGasFee() > b.getGasFee()) {
-                lowestGasPrice = b;
+    /**
+     * Removes a pooled entry from the indexes, unless another thread removed it first.
+     * @param consumed Whether the entry's nonce is used up, as when the transaction is mined. The sender's next
+     *                 transaction then becomes executable if it is pooled.
+     */
+    private boolean remove(MempoolEntry e, boolean consumed) {
+        return remove(e, consumed, true);
+    }
+
+    /**
+     * Takes a pooled entry for a block. Its nonce is used up, but it stays in the journal until the block is mined.
+     */
+    private void take(MempoolEntry e) {
+        remove(e, true, false);
+    }
+
+    private boolean remove(MempoolEntry e, boolean consumed, boolean journaled) {
+
+        final SenderQueue queue = e.getSender() == null ? null : senders.get(e.getSender());
+        if(!unlink(e, queue, journaled)) return false;
+        if(queue == null) return true;
+
+        if(consumed && e.getNonce() == queue.next) {
+            queue.next++;
+            final MempoolEntry next = queue.pending.get(queue.next);
+            if(next != null) {
+                parked.decrementAndGet();
+                index(next);
             }
+        }
+        dropIfIdle(e.getSender(), queue);
+        return true;
+
+    }
 
+    /**
+     * Moves the next nonce of a sender back to a taken transaction that returns to the pool. The transaction that was
+     * executable in its place is parked again. Called with the sender's lock.
+     */
+    private void rewind(SenderQueue queue, long nonce) {
+        final MempoolEntry head = queue.pending.get(queue.next);
+        if(head != null) {
+            unindex(head);
+            parked.incrementAndGet();
         }
-        if(lowestGasPrice.equals(origin)) {
-            throw new IllegalBlockSizeException("Gas fee is negative");
+        queue.next = nonce;
+    }
+
+    /**
+     * Records that a mined block used up the nonces of a sender up to <i>nonce</i>. The sender's pooled transactions
+     * up to that nonce can no longer be mined and are removed, and the transaction after it becomes executable.
+     * @return The number of entries removed.
+     */
+    private int used(String sender, long nonce) {
+        final Lock shared = poolLock.readLock();
+        final Lock stripe = stripeFor(sender);
+        shared.lock();
+        stripe.lock();
+        try {
+            final SenderQueue queue = senders.get(sender);
+            if(queue == null) return 0;
+            queue.stateNonce = Math.max(queue.stateNonce, nonce + 1);
+            int removed = 0;
+            for(MempoolEntry e : new ArrayList<>(queue.pending.values())) {
+                if(e.getNonce() <= nonce && unlink(e, queue)) removed++;
+            }
+            if(queue.next <= nonce) {
+                queue.next = nonce + 1;
+                final MempoolEntry next = queue.pending.get(queue.next);
+                if(next != null) {
+                    parked.decrementAndGet();
+                    index(next);
+                }
+            }
+            dropIfIdle(sender, queue);
+            return removed;
+        } finally {
+            stripe.unlock();
+            shared.unlock();
         }
-        return lowestGasPrice;
     }
 
     /**
-     * Adds a block to the pool.
-     * @param block The block to be added to the mempool.
-     * @return Whether the block could be added.
+     * Removes the entries whose time to live is over. Runs on the expiry thread every {@link #EXPIRY_TICK}.
      */
-    @SneakyThrows
-    public synchronized boolean addBlockToPool(Block block) {
-        try {
-            blocks.add(block);
-            return true;
-        } catch(IllegalStateException exception) {
-            var a = getLowestGasPriceBlock();
-            if(Objects.requireNonNull(a).getGasFee() <= getLowestGasPriceBlock().getGasFee()) {
-                return false; // The block was rejected for the mempool.
-            } else {
-                blocks.remove(a);
-                blocks.add(block);
-                return true;
+    private void expire() {
+        final long now = System.currentTimeMillis();
+        final List<MempoolEntry> due = new ArrayList<>();
+        final Lock shared = poolLock.readLock();
+        for(int i = 0; i < STRIPES; i++) {
+            shared.lock();
+            stripes[i].lock();
+            try {
+                expiry[i].advance(now, due::add);
+                for(MempoolEntry e : due) {
+                    try {
+                        if(remove(e, false)) expired.incrementAndGet();
+                    } catch(RuntimeException exception) {
+                        Logger.getGlobal().severe("Mempool expiry failed : " + exception.getMessage());
+                    }
+                }
+            } finally {
+                due.clear();
+                stripes[i].unlock();
+                shared.unlock();
             }
         }
     }
 
     /**
-     * Removes a block from the pool.
-     * @param block The block to be removed the mempool.
-     * @return Whether the block could be removed.
+     * Forgets an empty queue whose next nonce the state already knows.
+     */
+    private void dropIfIdle(String sender, SenderQueue queue) {
+        if(queue.pending.isEmpty() && queue.next == queue.stateNonce) senders.remove(sender, queue);
+    }
+
+    /**
+     * Removes a transaction from the pool. If it was the executable transaction of its sender, its nonce is
+     * considered used, as when it was mined elsewhere, and the sender's next transaction becomes executable.
+     * @param e The entry to be removed from the mempool.
+     * @return Whether the entry could be removed.
      */
     @SneakyThrows
-    public synchronized boolean removeBlockFromPool(Block block) {
+    public boolean removeEntryFromPool(@NotNull MempoolEntry e) {
+        final MempoolEntry pooled = byHash.get(e.getHash());
+        if(pooled == null) return false;
+        final Lock shared = poolLock.readLock();
+        final Lock stripe = stripeFor(pooled);
+        shared.lock();
+        stripe.lock();
         try {
-            return blocks.remove(block);
+            return remove(pooled, true);
         } catch(Exception exception) {
             Logger.getGlobal().severe(exception.getLocalizedMessage());
             return false;
+        } finally {
+            stripe.unlock();
+            shared.unlock();
+        }
+    }
+
+    /**
+     * Removes the transactions of a mined block from the pool. The nonce of every transaction of the block is used up,
+     * whether the transaction was pooled, taken or never seen here, so the pooled transactions of its sender up to
+     * that nonce, such as a conflicting one, are removed too. Other entries are removed as with
+     * {@link #removeEntryFromPool(MempoolEntry)}.
+     * @param block The mined block.
+     * @return The number of transactions removed.
+     */
+    public int removeBlockFromPool(@NotNull Block block) {
+        int removed = 0;
+        final Map<String, Long> usedNonces = new HashMap<>();
+        for(Blockable b : block.getBlockEntries()) {
+            final String hash = MempoolEntry.hashOf(b);
+            final MempoolEntry mined = inFlight.remove(hash);
+            final var j = journal;
+            if(mined != null && j != null) j.removed(mined);
+            if(b instanceof Transaction t && t.getSender() != null && t.getNonce() != Transaction.NO_NONCE) {
+                usedNonces.merge(t.getSender(), t.getNonce(), Math::max);
+                continue;
+            }
+            final MempoolEntry e = byHash.get(hash);
+            if(e != null && removeEntryFromPool(e)) removed++;
         }
+        // every sender's queue is settled once, at the highest nonce the block used
+        for(Map.Entry<String, Long> used : usedNonces.entrySet()) removed += used(used.getKey(), used.getValue());
+        if(!usedNonces.isEmpty()) {
+            // taken transactions that lost their nonce to another transaction of the block
+            for(MempoolEntry e : inFlight.values()) {
+                final Long nonce = e.getSender() == null ? null : usedNonces.get(e.getSender());
+                if(nonce != null && e.getNonce() <= nonce) forgetTaken(e);
+            }
+        }
+        return removed;
     }
 
-    public synchronized Block takeRandomBlockFromPool() {
-        final int x = new SecureRandom().nextInt(blocks.size());
-        var blocks2 = blocks.toArray(Block[]::new);
-        removeBlockFromPool(blocks2[x]);
-        return blocks2[x];
+    /**
+     * Removes a taken entry that will not return to the pool from the journal.
+     */
+    private void forgetTaken(MempoolEntry e) {
+        final var j = journal;
+        if(inFlight.remove(e.getHash(), e) && j != null) j.removed(e);
+    }
+
+    /**
+     * Removes executable transactions from the pool, highest gas fee first, until their {@linkplain MempoolEntry#getSize() estimated size}
+     * reaches <i>maxBytes</i>. Transactions that would overflow the budget stay in the pool. Taking a sender's transaction
+     * makes its next one executable, so it may be taken in the same call, after the former. A taken transaction that is
+     * {@linkplain #addEntryToPool(MempoolEntry) added back}, because its block was not mined, is executable again, and
+     * parks the transactions of its sender behind it. The transactions are chosen from a consistent view of the pool,
+     * as with {@link #snapshot()}.
+     * @param maxBytes The byte budget.
+     * @return The entries taken, which may be empty.
+     */
+    public List<MempoolEntry> takeEntriesFromPool(long maxBytes) {
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            final List<MempoolEntry> taken = new ArrayList<>();
+            final List<MempoolEntry> skipped = new ArrayList<>();
+            long size = 0;
+            MempoolEntry e;
+            while(size < maxBytes && (e = byFee.pollLast()) != null) {
+                feeHistogram.remove(e.getGasFee(), e.getSize());
+                samplers[stripeOf(e)].remove(e);
+                if(size + e.getSize() > maxBytes) {
+                    skipped.add(e);
+                    continue;
+                }
+                size += e.getSize();
+                taken.add(e);
+                take(e);
+            }
+            for(MempoolEntry s : skipped) index(s);
+            return taken;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes an executable transaction from the pool, picked uniformly at random in <code>O(1)</code> however large the pool is.
+     * The picks follow the {@linkplain #setRandomSeed(long) random seed}.
+     * @return The entry.
+     * @throws IllegalArgumentException if no transaction is executable.
+     */
+    public MempoolEntry takeRandomEntryFromPool() {
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            int executable = 0;
+            for(EntrySampler sampler : samplers) executable += sampler.size();
+            if(executable == 0) throw new IllegalArgumentException("No executable transaction in the mempool");
+            int pick = random.nextInt(executable);
+            for(EntrySampler sampler : samplers) {
+                if(pick < sampler.size()) {
+                    final MempoolEntry e = sampler.get(pick);
+                    take(e);
+                    return e;
+                }
+                pick -= sampler.size();
+            }
+            throw new IllegalStateException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reseeds the generator behind {@link #takeRandomEntryFromPool()}, so that the same pool yields the same picks.
+     * The generator is not cryptographically secure; picks only need to be uniform.
+     * @param seed The seed.
+     */
+    public void setRandomSeed(long seed) {
+        final Lock lock = poolLock.writeLock();
+        lock.lock();
+        try {
+            random = new SplittableRandom(seed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lock stripeFor(MempoolEntry e) {
+        return stripes[stripeOf(e)];
+    }
+
+    private Lock stripeFor(String key) {
+        return stripes[stripeOf(key)];
+    }
+
+    /**
+     * The index of the lock, expiry wheel and sampler of an entry's sender, or of the entry itself if it has none.
+     */
+    private static int stripeOf(MempoolEntry e) {
+        return stripeOf(e.getSender() == null ? e.getHash() : e.getSender());
+    }
+
+    private static int stripeOf(String key) {
+        return (key.hashCode() & 0x7FFFFFFF) % STRIPES;
+    }
+
+    private static long stateNonce(String sender) {
+        if(!StateTrie.isAvailable()) return 0;
+        final var properties = StateTrie.queryAddress(sender.getBytes(StandardCharsets.ISO_8859_1));
+        return properties == null ? 0 : properties.nonce();
+    }
+
+    /**
+     * The pooled transactions of one sender by nonce, guarded by the sender's lock. The entry at {@link #next}, if any,
+     * is the executable one; the others are parked.
+     */
+    private static final class SenderQueue {
+
+        private final HashMap<Long, MempoolEntry> pending = new HashMap<>();
+        private long next;
+        /**
+         * The next nonce the sender's state expects, read from the {@link Mempool#nonceSource} once and moved forward
+         * by every mined block that uses the sender's nonces.
+         */
+        private long stateNonce;
+
+        private SenderQueue(long stateNonce) {
+            this.next = stateNonce;
+            this.stateNonce = stateNonce;
+        }
+
     }
 
 }
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import net.bucketcoin.block.BlockCodec;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.block.Transaction;
+import net.bucketcoin.collections.TimerWheel;
+import net.bucketcoin.util.CryptoResources;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pending transaction in the {@link Mempool}. Everything the pool orders and bounds transactions by is
+ * computed once, when the entry is created: the hash, the gas fee, the {@linkplain BlockBuilder#estimateSize(Blockable) estimated size},
+ * the arrival time, and the sender and nonce of a {@link Transaction}.
+ */
+public final class MempoolEntry {
+
+    private static final AtomicLong arrivals = new AtomicLong(0);
+
+    @Getter @NotNull
+    private final Blockable transaction;
+    /**
+     * The SHA-256 hash of the transaction's binary form in a hexadecimal string, see {@link #hashOf(Blockable)}.
+     */
+    @Getter @NotNull
+    private final String hash;
+    @Getter
+    private final long gasFee;
+    @Getter
+    private final long size;
+    /**
+     * When the entry was created, in milliseconds since the epoch.
+     */
+    @Getter
+    private final long arrival;
+    /**
+     * The sender the pool queues the transaction under, or <code>null</code> if it has no {@linkplain Transaction#getNonce() nonce}.
+     */
+    @Getter @Nullable
+    private final String sender;
+    @Getter
+    private final long nonce;
+    /**
+     * Orders entries with the same gas fee by arrival.
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private final long sequence = arrivals.getAndIncrement();
+    /**
+     * The expiry timer while the entry is pooled, guarded by its sender's lock.
+     */
+    @Nullable TimerWheel.Timeout<MempoolEntry> timeout;
+    /**
+     * The index of the entry in the pool's {@link EntrySampler} while it is executable, or -1, guarded by its sender's lock.
+     */
+    int slot = -1;
+
+    /**
+     * Creates the entry of a transaction that arrives now.
+     * @param transaction The transaction.
+     */
+    public MempoolEntry(@NotNull Blockable transaction) {
+        this(transaction, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates an entry.
+     * @param transaction The transaction.
+     * @param arrival When the transaction arrived, in milliseconds since the epoch. Its time to live starts then.
+     */
+    public MempoolEntry(@NotNull Blockable transaction, long arrival) {
+        final byte[] encoded = BlockCodec.toBytes(transaction);
+        this.transaction = transaction;
+        this.hash = hash(encoded);
+        this.gasFee = transaction.getGasFee();
+        this.size = encoded.length;
+        this.arrival = arrival;
+        if(transaction instanceof Transaction t && t.getSender() != null && t.getNonce() != Transaction.NO_NONCE) {
+            this.sender = t.getSender();
+            this.nonce = t.getNonce();
+        } else {
+            this.sender = null;
+            this.nonce = Transaction.NO_NONCE;
+        }
+    }
+
+    /**
+     * Hashes a transaction the way pooled transactions are identified.
+     * @param transaction The transaction.
+     * @return The SHA-256 hash of its {@linkplain BlockCodec binary form} in a hexadecimal string.
+     */
+    public static @NotNull String hashOf(@NotNull Blockable transaction) {
+        return hash(BlockCodec.toBytes(transaction));
+    }
+
+    @SneakyThrows
+    private static String hash(byte[] encoded) {
+        final var digest = MessageDigest.getInstance(CryptoResources.HASH_ALGORITHM);
+        return new String(Hex.encodeHex(digest.digest(encoded)));
+    }
+
+    @Override
+    public String toString() {
+        return transaction.toString();
+    }
+
+}
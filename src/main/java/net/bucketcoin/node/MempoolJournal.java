@@ -0,0 +1,302 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import lombok.SneakyThrows;
+import net.bucketcoin.block.BlockCodec;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.block.Trade;
+import net.bucketcoin.block.Transaction;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+/**
+ * An append-only journal of {@link Mempool} admissions and removals, so that a restarted node
+ * has its pending transactions back without asking its peers.
+ * <pre>
+ * file    = magic:int version:int record*
+ * record  = ADD hash length:int entry | REMOVE hash
+ * entry   = a {@link BlockCodec} record
+ * hash    = 32 bytes
+ * </pre>
+ * Writes are buffered and flushed every {@link #FLUSH_MILLIS}, so a crash loses at most that much;
+ * a record cut short by a crash is dropped when the journal is replayed, but a complete record that cannot be
+ * decoded fails the replay. Entries taken for a block are only removed once the block is mined. Once the journal holds
+ * more than twice as many records as the pool has entries, it is compacted by rewriting the live entries
+ * to a new file that replaces the old one.
+ * <br><br>
+ * Only {@link Transaction}s and {@link Trade}s are journaled.
+ */
+final class MempoolJournal implements Closeable {
+
+    static final int MAGIC = 0x424D504C; // "BMPL"
+    static final int VERSION = 1;
+    static final long FLUSH_MILLIS = 1000;
+    /**
+     * The number of records below which the journal is never compacted.
+     */
+    static final long COMPACTION_THRESHOLD = 100_000;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final int HASH_LENGTH = 32;
+
+    private final Path file;
+    private final IntSupplier liveEntries;
+    private final Runnable compaction;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+        var t = new Thread(null, r, "mempool-journal");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    private DataOutputStream out;
+    private long records;
+
+    /**
+     * Opens the journal for appending.
+     * @param file The journal file, which must have been {@linkplain #replay(Path) replayed} or rewritten.
+     * @param records The number of records in the file.
+     * @param liveEntries The number of pooled entries.
+     * @param compaction Rewrites the journal through {@link #rewrite(Collection)}, when it has grown too large.
+     */
+    MempoolJournal(@NotNull Path file, long records, @NotNull IntSupplier liveEntries, @NotNull Runnable compaction) throws IOException {
+        this.file = file;
+        this.records = records;
+        this.liveEntries = liveEntries;
+        this.compaction = compaction;
+        this.out = open(file, false);
+        executorService.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void added(@NotNull MempoolEntry e) {
+        if(!journaled(e)) return;
+        try {
+            out.writeByte(ADD);
+            writeEntry(out, e);
+        } catch(IOException exception) {
+            Logger.getGlobal().severe("Mempool journal write failed : " + exception.getMessage());
+            return;
+        }
+        appended();
+    }
+
+    synchronized void removed(@NotNull MempoolEntry e) {
+        if(!journaled(e)) return;
+        try {
+            out.writeByte(REMOVE);
+            writeHash(out, e.getHash());
+        } catch(IOException exception) {
+            Logger.getGlobal().severe("Mempool journal write failed : " + exception.getMessage());
+            return;
+        }
+        appended();
+    }
+
+    private void appended() {
+        if(++records > COMPACTION_THRESHOLD && records > 2L * liveEntries.getAsInt() && compacting.compareAndSet(false, true)) {
+            executorService.execute(() -> {
+                try {
+                    compaction.run();
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Replaces the journal with one that only adds <i>entries</i>.
+     * @param entries The pooled entries.
+     */
+    synchronized void rewrite(@NotNull Collection<MempoolEntry> entries) throws IOException {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long written = 0;
+        try(var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final var o = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            o.writeInt(MAGIC);
+            o.writeInt(VERSION);
+            for(MempoolEntry e : entries) {
+                if(!journaled(e)) continue;
+                o.writeByte(ADD);
+                writeEntry(o, e);
+                written++;
+            }
+            o.flush();
+            channel.force(true); // the new journal has to be on disk before it replaces the old one
+        }
+        out.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = open(file, false);
+        records = written;
+    }
+
+    private synchronized void flush() {
+        try {
+            out.flush();
+        } catch(IOException e) {
+            Logger.getGlobal().warning("Mempool journal flush failed : " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        executorService.shutdownNow();
+        out.close();
+    }
+
+    /**
+     * Reads a journal through a memory mapping and applies its removals to its admissions.
+     * A record cut short at the end of the file is truncated away.
+     * @param file The journal file. A missing file is an empty journal.
+     * @return Every entry that was still pooled, in admission order.
+     * @throws IOException if the file cannot be read, is not a journal or holds a corrupt record.
+     */
+    static @NotNull Replay replay(@NotNull Path file) throws IOException {
+
+        final Map<String, Blockable> live = new LinkedHashMap<>();
+        if(!Files.exists(file)) {
+            open(file, true).close();
+            return new Replay(new ArrayList<>(), 0);
+        }
+
+        long records = 0;
+        try(var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long length = channel.size();
+            if(length > Integer.MAX_VALUE) throw new IOException("Mempool journal " + file + " is too large to map, " + length + " bytes");
+            final MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if(length < Integer.BYTES * 2 || in.getInt() != MAGIC) throw new IOException(file + " is not a mempool journal");
+            final int version = in.getInt();
+            if(version != VERSION) throw new IOException("Unsupported mempool journal version " + version);
+            int complete = in.position();
+            try {
+                while(in.hasRemaining()) {
+                    final byte type = in.get();
+                    final String hash = readHash(in);
+                    if(type == ADD) {
+                        live.put(hash, readEntry(in, complete));
+                    } else if(type == REMOVE) {
+                        live.remove(hash);
+                    } else {
+                        throw new IOException("Unknown mempool journal record " + type + " at " + complete);
+                    }
+                    complete = in.position();
+                    records++;
+                }
+            } catch(BufferUnderflowException e) {
+                Logger.getGlobal().warning("Mempool journal ends with a partial record, truncating at " + complete);
+                channel.truncate(complete);
+            }
+        }
+        return new Replay(new ArrayList<>(live.values()), records);
+
+    }
+
+    /**
+     * The result of a {@link #replay(Path)}.
+     * @param entries Every pooled entry.
+     * @param records The number of complete records in the journal.
+     */
+    record Replay(@NotNull List<Blockable> entries, long records) {}
+
+    /**
+     * Opens a journal for appending, writing the header first if the journal is <i>fresh</i>.
+     */
+    private static DataOutputStream open(Path file, boolean fresh) throws IOException {
+        final var o = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                fresh ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND), 1 << 16));
+        if(fresh) {
+            o.writeInt(MAGIC);
+            o.writeInt(VERSION);
+        }
+        return o;
+    }
+
+    /**
+     * Whether the entry can be decoded again, which excludes the entries the codec stores as {@linkplain BlockCodec#OPAQUE opaque}.
+     */
+    private static boolean journaled(MempoolEntry e) {
+        return e.getTransaction() instanceof Transaction || e.getTransaction() instanceof Trade;
+    }
+
+    private static void writeEntry(DataOutputStream o, MempoolEntry e) throws IOException {
+        writeHash(o, e.getHash());
+        final byte[] entry = BlockCodec.toBytes(e.getTransaction());
+        o.writeInt(entry.length);
+        o.write(entry);
+    }
+
+    /**
+     * Reads the entry of an ADD record. The entry is framed by its length, so a short read past the end of the file is a
+     * partial record and anything else is a corrupt one.
+     * @param record Where the record starts, for the error message.
+     * @throws BufferUnderflowException if the file ends inside the entry.
+     * @throws IOException if the entry is corrupt.
+     */
+    private static Blockable readEntry(ByteBuffer in, int record) throws IOException {
+        final int length = in.getInt();
+        if(length < 0) throw new IOException("Corrupt mempool journal record at " + record + " : length " + length);
+        if(length > in.remaining()) throw new BufferUnderflowException();
+        final ByteBuffer entry = in.slice(in.position(), length);
+        in.position(in.position() + length);
+        try {
+            final Blockable b = BlockCodec.decodeEntry(entry);
+            if(entry.hasRemaining()) throw new IllegalArgumentException(entry.remaining() + " trailing bytes");
+            return b;
+        } catch(BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt mempool journal record at " + record + " : " + e.getMessage(), e);
+        }
+    }
+
+    @SneakyThrows
+    private static void writeHash(DataOutputStream o, String hash) throws IOException {
+        o.write(Hex.decodeHex(hash.toCharArray()));
+    }
+
+    private static String readHash(ByteBuffer in) {
+        final byte[] b = new byte[HASH_LENGTH];
+        in.get(b);
+        return new String(Hex.encodeHex(b));
+    }
+
+}
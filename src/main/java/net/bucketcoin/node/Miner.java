@@ -16,25 +16,36 @@
 
 package net.bucketcoin.node;
 
-import static net.bucketcoin.pow.DifficultyAlgorithm.*;
-
-import com.google.gson.Gson;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.SneakyThrows;
+import net.bucketcoin.block.BlockCodec;
 import net.bucketcoin.block.Blockable;
 import net.bucketcoin.crypto.Bucketcoin;
 import net.bucketcoin.block.Block;
+import net.bucketcoin.block.BlockHeader;
 import net.bucketcoin.block.Transaction;
 import net.bucketcoin.p2p.Broadcast;
 import net.bucketcoin.p2p.Node;
-import org.apache.commons.codec.digest.DigestUtils;
+import net.bucketcoin.pow.CancellationToken;
+import net.bucketcoin.pow.DifficultyAlgorithm;
+import net.bucketcoin.pow.MiningEngine;
+import net.bucketcoin.util.Amounts;
+import net.bucketcoin.util.CryptoResources;
+import net.bucketcoin.util.JsonResources;
+import net.bucketcoin.util.SignatureVerifier;
+import org.apache.commons.codec.binary.Hex;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 
-import javax.crypto.Cipher;
-import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -42,82 +53,244 @@ import java.util.logging.Logger;
  */
 public class Miner {
 
+    /**
+     * The reward for mining a block, 6 BCKT.
+     */
+    public static final long REWARD = 6 * Amounts.UNITS_PER_BCKT;
+    /**
+     * The sender of reward transactions, which are not signed and take their amount from no account.
+     */
+    public static final String REWARD_SENDER = "rewards";
+
     private static final Miner miner = new Miner();
 
+    private volatile MiningEngine engine = new MiningEngine();
+    @Getter @Setter @NotNull
+    private volatile BlockBuilder blockBuilder = new BlockBuilder();
+
+    private final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+
     private Miner() {
-        //no instance
+        Bucketcoin.getInstance().addTipListener(this::tipChanged);
     }
 
     public static Miner getInstance() {
         return miner;
     }
 
-    @SneakyThrows
+    /**
+     * Sets the number of worker threads used for mining. The default is one per available processor.
+     * @param workers The number of workers.
+     * @throws IllegalArgumentException if <code>workers < 1</code>.
+     */
+    public synchronized void setWorkers(int workers) {
+        var old = engine;
+        engine = new MiningEngine(workers);
+        old.close();
+    }
+
+    public int getWorkers() {
+        return engine.getWorkers();
+    }
+
+    /**
+     * Verifies the signature of a transaction and mines it into a block with this node's reward. The signature is
+     * embedded in the mined transaction, so that the {@link Verifier} finds it.
+     * @param transaction The transaction, whose sender is the {@linkplain CryptoResources#encodePublicKey(PublicKey)
+     *                    encoded} <i>senderPublicKey</i> and which has a nonce.
+     * @param senderPublicKey The public key of the sender.
+     * @param signature The {@link CryptoResources#SIGNATURE_ALGORITHM} signature of the
+     *                  transaction's {@linkplain Transaction#getSigningBytes() signing bytes}.
+     */
     public void pushBlock(@NotNull Transaction transaction, Key senderPublicKey, byte[] signature) {
-        Cipher c = Cipher.getInstance("RSA");
-        c.init(Cipher.DECRYPT_MODE, senderPublicKey);
-        final byte[] dec = c.doFinal(signature);
-        if(Arrays.equals(dec, DigestUtils.shaHex(transaction.toString()).getBytes(StandardCharsets.ISO_8859_1))) {
-
-            var block = new Block(Bucketcoin.getInstance().getLastBlock().getHash(), new ArrayList<>() {{
-                add(transaction);
-                if(Node.getNodeWallet() == null) throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
-                add(new Transaction(6, "rewards", Node.getNodeWallet().getAddress(), 0));
-            }});
-            this.mine(block.getNonce());
-            System.out.println(new Gson().newBuilder().create().toJson(block));
-            Bucketcoin.getInstance().chain.push(block);
-            Broadcast.block(block);
+        if(!(senderPublicKey instanceof PublicKey key)
+                || !SignatureVerifier.getInstance().verify(transaction.getSigningBytes(), key, signature)) return;
+        final Transaction signed = attach(transaction, CryptoResources.encodePublicKey(key), signature);
+        if(signed == null) return;
+
+        var block = mineOnTip(new ArrayList<>() {{
+            add(signed);
+            add(reward());
+        }});
+        if(block == null) return;
+        Logger.getGlobal().fine(() -> "Mined block " + JsonResources.getGson().toJson(block));
+        publish(block);
+    }
 
+    /**
+     * Verifies the transactions and mines the valid ones into a single block. Transactions that
+     * do not fit in the {@link #getBlockBuilder() block builder}'s budget go to the {@link Mempool}.
+     * The signatures of {@link Transaction}s are embedded in the mined transactions, so that the {@link Verifier} finds them.
+     * @param senderPublicKey The public key of the sender of every transaction.
+     * @param signatures The signature of every transaction, in order, over its {@linkplain Transaction#getSigningBytes()
+     *                   signing bytes}, or over its {@linkplain BlockCodec binary form} for other entries.
+     *                   The signatures are verified together by the {@link SignatureVerifier}.
+     * @throws IllegalArgumentException if there is not one signature per transaction.
+     */
+    public void pushBlock(Key senderPublicKey, byte[][] signatures, Blockable... transactions) {
+        if(signatures.length != transactions.length) throw new IllegalArgumentException("Expected one signature per transaction");
+        if(!(senderPublicKey instanceof PublicKey key)) return;
+        final String account = CryptoResources.encodePublicKey(key);
+        final List<SignatureVerifier.Request> requests = new ArrayList<>(transactions.length);
+        for(int i = 0; i < transactions.length; i++) {
+            final byte[] message = transactions[i] instanceof Transaction t ? t.getSigningBytes() : BlockCodec.toBytes(transactions[i]);
+            requests.add(new SignatureVerifier.Request(message, account, signatures[i]));
+        }
+        final boolean[] valid = SignatureVerifier.getInstance().verifyAll(requests);
+        final List<Blockable> verified = new ArrayList<>(transactions.length);
+        for(int i = 0; i < transactions.length; i++) {
+            if(!valid[i]) continue;
+            if(!(transactions[i] instanceof Transaction t)) {
+                verified.add(transactions[i]);
+                continue;
+            }
+            final Transaction signed = attach(t, account, signatures[i]);
+            if(signed != null) verified.add(signed);
         }
+        if(verified.isEmpty()) return;
+
+        final List<Blockable> overflow = new ArrayList<>();
+        final List<Blockable> entries = blockBuilder.assemble(verified, overflow);
+        for(Blockable b : overflow) Mempool.getInstance().addTransactionToPool(b);
+        var block = mineOnTip(entries);
+        if(block == null) return;
+        Logger.getGlobal().fine(() -> "Mined block " + JsonResources.getGson().toJson(block));
+        publish(block);
     }
 
-    @SneakyThrows
+    /**
+     * Verifies the transactions against one signature and mines the valid ones into a single block.
+     * @deprecated One signature cannot sign several transactions, so this only mines a single transaction.
+     * Use {@link #pushBlock(Key, byte[][], Blockable...)} with the signature of every transaction instead.
+     */
+    @Deprecated
     public void pushBlock(Key senderPublicKey, byte[] signature, Blockable... transactions) {
-        for(Blockable transaction : transactions) {
-            Cipher c = Cipher.getInstance("RSA");
-            c.init(Cipher.DECRYPT_MODE, senderPublicKey);
-            final byte[] dec = c.doFinal(signature);
-            if(Arrays.equals(dec, DigestUtils.shaHex(transaction.toString()).getBytes(StandardCharsets.ISO_8859_1))) {
-
-                var block = new Block(Bucketcoin.getInstance().getLastBlock().getHash(), new ArrayList<>() {{
-                    add(transaction);
-                    if(Node.getNodeWallet() == null) throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
-                    add(new Transaction(6, "rewards", Node.getNodeWallet().getAddress(), 0));
-                }});
-                this.mine(block.getNonce());
-                System.out.println(new Gson().newBuilder().create().toJson(block));
-                Bucketcoin.getInstance().chain.push(block);
-                Broadcast.block(block);
+        final byte[][] signatures = new byte[transactions.length][];
+        Arrays.fill(signatures, signature);
+        pushBlock(senderPublicKey, signatures, transactions);
+    }
 
-            }
+    /**
+     * Embeds a verified detached signature in a transaction.
+     * @return The signed transaction, or <code>null</code> if the {@link Verifier} would reject it anyway,
+     *         because its sender is not <i>account</i> or because it has no nonce.
+     */
+    private static @Nullable Transaction attach(Transaction t, String account, byte[] signature) {
+        if(!account.equals(t.getSender()) || t.getNonce() == Transaction.NO_NONCE) {
+            Logger.getGlobal().warning("Transaction " + t + " cannot be mined : its sender does not hold the key, or it has no nonce");
+            return null;
         }
+        return new Transaction(t.getBckt(), t.getSender(), t.getRecipient(), t.getGasFee(), t.getNonce(), new String(Hex.encodeHex(signature)));
     }
 
     /**
-     * Mines the block.
-     * @param nonce The nonce.
+     * Broadcasts a mined block once the {@link Verifier} {@linkplain Verifier#accept(Block) accepts} it onto the chain.
+     * @return Whether the block was published.
      */
-    public void mine(int nonce) {
+    private boolean publish(@NotNull Block block) {
+        final var result = Verifier.getInstance().accept(block);
+        if(!result.isValid()) {
+            Logger.getGlobal().warning("Block " + block.getHash() + " rejected : " + result);
+            return false;
+        }
+        Broadcast.block(block);
+        return true;
+    }
+
+    /**
+     * Mines the entries on top of the chain tip, restarting on the new tip every time it changes.
+     * @return The mined block, or <code>null</code> if mining was {@linkplain #cancel() cancelled}.
+     */
+    private @Nullable Block mineOnTip(@NotNull List<Blockable> entries) {
+        while(true) {
+            final String tip = Bucketcoin.getInstance().getLastBlock().getHash();
+            final var block = new Block(tip, new ArrayList<>(entries));
+            if(this.mine(block)) return block;
+            if(tip.equals(Bucketcoin.getInstance().getLastBlock().getHash())) return null;
+        }
+    }
+
+    /**
+     * Mines the block by searching for a nonce whose {@link BlockHeader} hash meets the difficulty.
+     * The search is cancelled as soon as the chain tip moves away from the block's parent.
+     * @param block The block.
+     * @return Whether a solution was found. This is <code>false</code> if mining was cancelled.
+     * @see #mine(Block, CancellationToken)
+     */
+    public boolean mine(@NotNull Block block) {
+        return mine(block, new CancellationToken());
+    }
+
+    /**
+     * Mines the block by searching for a nonce whose {@link BlockHeader} hash meets the difficulty,
+     * and {@linkplain Block#seal(long, long) seals} it with that nonce.
+     * @param block The block.
+     * @param token The token that cancels this task. The miner also cancels it when the chain tip
+     *              moves away from the block's parent, or when {@link #cancel()} is called.
+     * @return Whether a solution was found. This is <code>false</code> if mining was cancelled.
+     * @see MiningEngine#mine(byte[], int, long, long, CancellationToken)
+     */
+    public boolean mine(@NotNull Block block, @NotNull CancellationToken token) {
+        return mine(block, null, token);
+    }
 
-        int sol = 1;
-        StringBuilder difficultyStringBuilder = new StringBuilder();
+    /**
+     * Mines the block as with {@link #mine(Block, CancellationToken)}, on a parent that may not be on the chain yet,
+     * as a pipelined producer does while its previous block is being published.
+     * @param block The block.
+     * @param pending The block's parent if it is mined but not on the chain yet, in which case it has to extend the
+     *                chain tip, or <code>null</code> if the block extends the chain tip.
+     * @param token The token that cancels this task. The miner also cancels it when the chain tip
+     *              moves to another block than the block's parent, or when {@link #cancel()} is called.
+     * @return Whether a solution was found. This is <code>false</code> if mining was cancelled, or if the block
+     *         extends neither the chain tip nor a pending block on it.
+     */
+    @SneakyThrows
+    public boolean mine(@NotNull Block block, @Nullable Block pending, @NotNull CancellationToken token) {
 
-        for(int i = 0; i < getDifficulty(); i++) {
-            difficultyStringBuilder.append('0');
+        final var task = new Task(block.getPrevHash(), token);
+        tasks.add(task);
+        try {
+            // the tip may have moved before the task was registered
+            final String tip = Bucketcoin.getInstance().getLastBlock().getHash();
+            if(!block.getPrevHash().equals(tip) && (pending == null
+                    || !block.getPrevHash().equals(pending.getHash()) || !pending.getPrevHash().equals(tip))) return false;
+            final long difficulty = DifficultyAlgorithm.getDifficulty();
+            final byte[] header = BlockHeader.of(block, difficulty, block.getNonce());
+            final var solution = engine.mine(header, BlockHeader.NONCE_OFFSET, block.getNonce(), difficulty, token);
+            if(solution == null) return false;
+            block.seal(difficulty, solution.nonce());
+            return true;
+        } finally {
+            tasks.remove(task);
         }
 
-        while(true) {
-            var hash = DigestUtils.md5Hex(String.valueOf(nonce + sol));
-            System.out.println(hash); // DEBUG PURPOSES
-            if(hash.startsWith(difficultyStringBuilder.toString())) {
-                Logger.getGlobal().info("Solution accepted : " + hash);
-                return;
-            }
-            sol++;
+    }
 
+    private void tipChanged(@NotNull Block tip) {
+        if(tasks.isEmpty()) return;
+        final String hash = tip.getHash();
+        for(Task task : tasks) {
+            if(!task.parent().equals(hash)) task.token().cancel();
         }
+    }
 
+    /**
+     * Creates the reward {@link Transaction} paid to this node for mining a block.
+     * @throws IllegalStateException if the node is not initialized.
+     */
+    static @NotNull Transaction reward() {
+        if(!Node.isInitialized()) throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
+        return new Transaction(REWARD, REWARD_SENDER, Node.getNodeWallet().getAccount(), 0);
     }
 
-}
\ No newline at end of file
+    /**
+     * Stops every block currently being mined.
+     */
+    public void cancel() {
+        for(Task task : tasks) task.token().cancel();
+    }
+
+    private record Task(String parent, CancellationToken token) {}
+
+}
@@ -16,8 +16,452 @@
 
 package net.bucketcoin.node;
 
-public class Verifier {
+import lombok.Getter;
+import lombok.Setter;
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.block.Trade;
+import net.bucketcoin.block.Transaction;
+import net.bucketcoin.crypto.Bucketcoin;
+import net.bucketcoin.crypto.state.StateTrie;
+import net.bucketcoin.pow.DifficultyAlgorithm;
+import net.bucketcoin.util.Amounts;
+import net.bucketcoin.util.SignatureVerifier;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
 
+/**
+ * Validates blocks in stages, cheapest first, and stops at the first stage that fails:
+ * <ol>
+ *     <li><b>structure</b> checks the block on its own: it has entries, at most one {@linkplain Miner#reward() reward}
+ *     of at most {@link Miner#REWARD}, a signature and a nonce on every other transaction, no two transactions with the
+ *     same sender and nonce, no entries other than transactions, and a timestamp at most {@link #MAX_FUTURE} ahead,</li>
+ *     <li><b>header</b> checks the block against its parent and its proof of work: it extends the parent, is not older
+ *     than it, is mined at the current difficulty at least, and its header hash meets that difficulty,</li>
+ *     <li><b>signatures</b> verifies the signature of every transaction in parallel batches of the {@link SignatureVerifier},</li>
+ *     <li><b>state</b> applies the entries in order to the balances and nonces of a {@link Ledger}: every transaction
+ *     has the next nonce of its sender, and every sender can pay the amount and the gas fees. The gas fees go to the
+ *     recipient of the reward.</li>
+ * </ol>
+ * A malformed block is thus rejected before any signature is verified, and the state is only read for blocks whose
+ * every signature is valid. Verifying a block does not change the ledger; the state changes are carried by the
+ * {@link Result}, and {@link #accept(Block)} applies them as it pushes the block onto the chain.
+ * <br><br>
+ * {@link Trade}s are not signed yet, so nothing proves that their sender agreed to pay their gas fee; blocks
+ * holding them are rejected until they are.
+ */
+public final class Verifier {
+
+    /**
+     * How far ahead of this node's clock a block's timestamp may be.
+     */
+    public static final Duration MAX_FUTURE = Duration.ofHours(2);
+
+    private static final Verifier verifier = new Verifier();
+
+    /**
+     * The state blocks are applied to. The default reads and writes the {@link StateTrie}.
+     */
+    @Getter @Setter @NotNull
+    private volatile Ledger ledger = new StateTrieLedger();
+    /**
+     * The lowest difficulty a block may be mined at, by default the current {@linkplain DifficultyAlgorithm#getDifficulty() difficulty}.
+     */
+    @Setter @NotNull
+    private volatile LongSupplier minDifficulty = DifficultyAlgorithm::getDifficulty;
+
+    /**
+     * The stage timings of the last verified block, valid or not.
+     */
+    @Getter
+    private volatile @Nullable StageTimings lastTimings;
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    /**
+     * The number of committed blocks, which tells {@link #accept(Block)} whether the ledger changed.
+     */
+    private volatile long commits = 0;
+
+    private Verifier() {
+        /* This is a singleton class. */
+    }
+
+    public static Verifier getInstance() {
+        return verifier;
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Verifies a block on top of the chain tip.
+     * @see #verify(Block, Block)
+     */
+    public @NotNull Result verify(@NotNull Block block) {
+        return verify(block, Bucketcoin.getInstance().getLastBlock());
+    }
+
+    /**
+     * Verifies a block, stage by stage.
+     * @param block The block.
+     * @param parent The block it has to extend.
+     * @return The result, which names the failed stage if the block is invalid, and carries the state changes otherwise.
+     */
+    public @NotNull Result verify(@NotNull Block block, @NotNull Block parent) {
+        final var run = new Run(block);
+        final Result result = run.structure() && run.header(parent) && run.signatures() && run.state()
+                ? run.valid()
+                : run.invalid();
+        lastTimings = result.timings();
+        (result.isValid() ? accepted : rejected).incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Verifies a block on top of the chain tip and, if it is valid, commits its state changes and pushes it onto
+     * the chain, as one step: no other block can be accepted in between, so two blocks verified against the same tip
+     * cannot both be pushed. The block is verified before the step starts, so that its signatures are not checked
+     * while other blocks wait, and verified again inside it if the tip or the ledger changed meanwhile.
+     * The state changes are committed first, so that a ledger that fails leaves the chain as it was; they are undone
+     * if the block cannot be pushed. The transactions of an accepted block then leave the {@link Mempool}.
+     * @param block The block.
+     * @return The result. The block is on the chain if it is valid.
+     * @throws RuntimeException if the ledger fails, in which case neither the ledger nor the chain changed.
+     */
+    public @NotNull Result accept(@NotNull Block block) {
+        final Block parent = Bucketcoin.getInstance().getLastBlock();
+        final long seen = commits;
+        Result result = verify(block, parent);
+        if(!result.isValid()) return result;
+        synchronized(this) {
+            final Block tip = Bucketcoin.getInstance().getLastBlock();
+            if(commits != seen || !tip.getHash().equals(parent.getHash())) {
+                result = verify(block, tip);
+                if(!result.isValid()) return result;
+            }
+            final Map<String, long[]> previous = apply(result);
+            try {
+                Bucketcoin.getInstance().pushBlock(block);
+            } catch(RuntimeException e) {
+                restore(previous);
+                throw e;
+            }
+        }
+        Mempool.getInstance().removeBlockFromPool(block);
+        return result;
+    }
+
+    /**
+     * Applies the state changes of a valid block to the {@link #getLedger() ledger}. Blocks reach the chain
+     * through {@link #accept(Block)}, which commits them.
+     * @param result The result of verifying the block.
+     * @throws IllegalArgumentException if the block is invalid.
+     */
+    synchronized void commit(@NotNull Result result) {
+        apply(result);
+    }
+
+    /**
+     * Commits the state changes of a valid block, all or nothing: if the ledger fails on an account, the accounts
+     * already written are restored before the failure is thrown.
+     * @return The balance and nonce every changed account had before, to {@linkplain #restore(Map) restore} them.
+     */
+    private Map<String, long[]> apply(Result result) {
+        if(!result.isValid()) throw new IllegalArgumentException("Cannot commit an invalid block");
+        final Ledger l = ledger;
+        final Set<String> accounts = new HashSet<>(result.balances().keySet());
+        accounts.addAll(result.nonces().keySet());
+        final Map<String, long[]> previous = new LinkedHashMap<>();
+        commits++;
+        try {
+            for(String account : accounts) {
+                final long oldBalance = l.balanceOf(account);
+                final long oldNonce = l.nonceOf(account);
+                final Long balance = result.balances().get(account);
+                final Long nonce = result.nonces().get(account);
+                l.commit(account, balance == null ? oldBalance : balance, nonce == null ? oldNonce : nonce);
+                previous.put(account, new long[] {oldBalance, oldNonce});
+            }
+        } catch(RuntimeException e) {
+            restore(previous);
+            throw e;
+        }
+        return previous;
+    }
+
+    private void restore(Map<String, long[]> previous) {
+        final Ledger l = ledger;
+        for(Map.Entry<String, long[]> e : previous.entrySet()) {
+            try {
+                l.commit(e.getKey(), e.getValue()[0], e.getValue()[1]);
+            } catch(RuntimeException failure) {
+                Logger.getGlobal().severe("Could not restore account " + e.getKey() + " : " + failure.getMessage());
+            }
+        }
+    }
+
+    private static boolean isReward(Transaction t) {
+        return Miner.REWARD_SENDER.equals(t.getSender()) && t.getSignature() == null;
+    }
+
+    /**
+     * The stages of verification, in order.
+     */
+    public enum Stage {
+        STRUCTURE,
+        HEADER,
+        SIGNATURES,
+        STATE
+    }
+
+    /**
+     * The outcome of verifying a block.
+     * @param failed The stage that failed, or <code>null</code> if the block is valid.
+     * @param reason Why the stage failed, or <code>null</code> if the block is valid.
+     * @param entry The entry that failed the stage, if the failure is down to one entry.
+     * @param timings The time spent in every stage.
+     * @param balances The balance of every account the block changes, once it is applied.
+     * @param nonces The next nonce of every sender the block changes, once it is applied.
+     */
+    public record Result(@Nullable Stage failed, @Nullable String reason, @Nullable Blockable entry, @NotNull StageTimings timings,
+                         @NotNull Map<String, Long> balances, @NotNull Map<String, Long> nonces) {
+
+        public boolean isValid() {
+            return failed == null;
+        }
+
+        @Override
+        public String toString() {
+            return (isValid() ? "valid" : "invalid at " + failed + " : " + reason) + " (" + timings + ")";
+        }
+
+    }
+
+    /**
+     * The time a block spent in every stage, in nanoseconds. Stages after a failed one take no time.
+     */
+    public record StageTimings(long structure, long header, long signatures, long state) {
+
+        @Override
+        public String toString() {
+            return String.format("structure %.3f ms, header %.3f ms, signatures %.3f ms, state %.3f ms",
+                    structure / 1e6, header / 1e6, signatures / 1e6, state / 1e6);
+        }
+
+    }
+
+    /**
+     * The balances and nonces blocks are checked against and applied to.
+     */
+    public interface Ledger {
+
+        /**
+         * @return The balance of an account in base units, 0 for an unknown account.
+         */
+        long balanceOf(@NotNull String account);
+
+        /**
+         * @return The next nonce of an account, 0 for an unknown account.
+         */
+        long nonceOf(@NotNull String account);
+
+        /**
+         * Stores the balance and next nonce of an account.
+         */
+        void commit(@NotNull String account, long balance, long nonce);
+
+    }
+
+    /**
+     * A ledger over the {@link StateTrie}, where accounts are keyed by their name in ISO-8859-1. Reads fall back
+     * to an empty account while the node is not initialized or the account does not exist; any other failure is thrown.
+     */
+    private static final class StateTrieLedger implements Ledger {
+
+        @Override
+        public long balanceOf(@NotNull String account) {
+            final var properties = query(account);
+            return properties == null ? 0 : properties.balance();
+        }
+
+        @Override
+        public long nonceOf(@NotNull String account) {
+            final var properties = query(account);
+            return properties == null ? 0 : properties.nonce();
+        }
+
+        @Override
+        public void commit(@NotNull String account, long balance, long nonce) {
+            final var properties = query(account);
+            StateTrie.addAccount(account, new StateTrie.AddressProperties(Math.toIntExact(nonce), balance,
+                    properties == null ? null : properties.storageRoot(), properties == null ? null : properties.codeHash()));
+        }
+
+        private static @Nullable StateTrie.AddressProperties query(String account) {
+            if(!StateTrie.isAvailable()) return null;
+            return StateTrie.queryAddress(account.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+    }
+
+    /**
+     * The verification of one block, which keeps the stage timings and the failure.
+     */
+    private final class Run {
+
+        private final Block block;
+        private final Blockable[] entries;
+        private final long[] nanos = new long[Stage.values().length];
+        private final Map<String, Long> balances = new HashMap<>();
+        private final Map<String, Long> nonces = new HashMap<>();
+        private final List<Transaction> signed = new ArrayList<>();
+        private Stage failed;
+        private String reason;
+        private Blockable entry;
+        private long start = System.nanoTime();
+
+        private Run(Block block) {
+            this.block = block;
+            this.entries = block.getBlockEntries();
+        }
+
+        private boolean structure() {
+            if(entries.length == 0) return fail(Stage.STRUCTURE, "no entries", null);
+            if(block.getTimestamp().getTime() > System.currentTimeMillis() + MAX_FUTURE.toMillis()) {
+                return fail(Stage.STRUCTURE, "timestamp too far ahead", null);
+            }
+            boolean rewarded = false;
+            final Set<String> senderNonces = new HashSet<>();
+            for(Blockable b : entries) {
+                if(b instanceof Trade) return fail(Stage.STRUCTURE, "unsigned trade", b);
+                if(!(b instanceof Transaction t)) return fail(Stage.STRUCTURE, "unknown entry", b);
+                if(isReward(t)) {
+                    if(rewarded) return fail(Stage.STRUCTURE, "more than one reward", t);
+                    if(t.getBckt() > Miner.REWARD) return fail(Stage.STRUCTURE, "reward too large", t);
+                    rewarded = true;
+                    continue;
+                }
+                if(t.getSignature() == null) return fail(Stage.STRUCTURE, "unsigned transaction", t);
+                if(t.getNonce() == Transaction.NO_NONCE) return fail(Stage.STRUCTURE, "no nonce", t);
+                if(!senderNonces.add(t.getNonce() + ":" + t.getSender())) return fail(Stage.STRUCTURE, "duplicate nonce", t);
+                signed.add(t);
+            }
+            return passed(Stage.STRUCTURE);
+        }
+
+        private boolean header(Block parent) {
+            if(!parent.getHash().equals(block.getPrevHash())) return fail(Stage.HEADER, "does not extend its parent", null);
+            if(block.getTimestamp().before(parent.getTimestamp())) return fail(Stage.HEADER, "older than its parent", null);
+            if(!DifficultyAlgorithm.isValid(block.getDifficulty())) return fail(Stage.HEADER, "difficulty out of range", null);
+            if(block.getDifficulty() < minDifficulty.getAsLong()) return fail(Stage.HEADER, "difficulty too low", null);
+            final byte[] hash;
+            try {
+                hash = Hex.decodeHex(block.getHash().toCharArray());
+            } catch(DecoderException e) {
+                return fail(Stage.HEADER, "malformed hash", null);
+            }
+            if(!DifficultyAlgorithm.meetsDifficulty(hash, block.getDifficulty())) return fail(Stage.HEADER, "proof of work not met", null);
+            return passed(Stage.HEADER);
+        }
+
+        private boolean signatures() {
+            final List<SignatureVerifier.Request> requests = new ArrayList<>(signed.size());
+            for(Transaction t : signed) {
+                final var request = t.getSignatureRequest();
+                if(request == null) return fail(Stage.SIGNATURES, "malformed signature", t);
+                requests.add(request);
+            }
+            final int invalid = SignatureVerifier.getInstance().findInvalid(requests);
+            if(invalid >= 0) return fail(Stage.SIGNATURES, "invalid signature", signed.get(invalid));
+            return passed(Stage.SIGNATURES);
+        }
+
+        private boolean state() {
+            final Ledger l = ledger;
+            String miner = null;
+            long fees = 0;
+            try {
+                for(Blockable b : entries) {
+                    final Transaction t = (Transaction) b; // the structure stage lets nothing else through
+                    if(isReward(t)) {
+                        miner = t.getRecipient();
+                        credit(l, miner, t.getBckt());
+                        continue;
+                    }
+                    final long expected = nonces.computeIfAbsent(t.getSender(), l::nonceOf);
+                    if(t.getNonce() != expected) return fail(Stage.STATE, "expected nonce " + expected, t);
+                    nonces.put(t.getSender(), expected + 1);
+                    if(!debit(l, t.getSender(), Amounts.add(t.getBckt(), t.getGasFee()))) return fail(Stage.STATE, "insufficient balance", t);
+                    credit(l, t.getRecipient(), t.getBckt());
+                    fees = Amounts.add(fees, t.getGasFee());
+                }
+                if(miner != null) credit(l, miner, fees);
+            } catch(ArithmeticException e) {
+                return fail(Stage.STATE, "balance overflow", null);
+            }
+            return passed(Stage.STATE);
+        }
+
+        private void credit(Ledger l, String account, long amount) {
+            balances.put(account, Amounts.add(balances.computeIfAbsent(account, l::balanceOf), amount));
+        }
+
+        private boolean debit(Ledger l, String account, long amount) {
+            final long balance = balances.computeIfAbsent(account, l::balanceOf);
+            if(balance < amount) return false;
+            balances.put(account, balance - amount);
+            return true;
+        }
+
+        private boolean passed(Stage stage) {
+            final long now = System.nanoTime();
+            nanos[stage.ordinal()] = now - start;
+            start = now;
+            return true;
+        }
+
+        @Contract("_, _, _ -> false")
+        private boolean fail(Stage stage, String reason, @Nullable Blockable entry) {
+            passed(stage);
+            this.failed = stage;
+            this.reason = reason;
+            this.entry = entry;
+            return false;
+        }
+
+        private StageTimings timings() {
+            return new StageTimings(nanos[0], nanos[1], nanos[2], nanos[3]);
+        }
+
+        private Result valid() {
+            return new Result(null, null, null, timings(), Map.copyOf(balances), Map.copyOf(nonces));
+        }
+
+        private Result invalid() {
+            return new Result(failed, reason, entry, timings(), Map.of(), Map.of());
+        }
+
+    }
 
 }
@@ -16,15 +16,17 @@
 
 package net.bucketcoin.p2p;
 
-import com.google.gson.GsonBuilder;
-import net.bucketcoin.crypto.Bucketcoin;
 import net.bucketcoin.block.Block;
-import net.bucketcoin.node.Mempool;
+import net.bucketcoin.block.BlockCodec;
+import net.bucketcoin.node.Verifier;
 import peerbase.HandlerInterface;
 import peerbase.Node;
 import peerbase.PeerConnection;
 import peerbase.PeerMessage;
 
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
 public class BlockHandler implements HandlerInterface {
 
     private Node node;
@@ -39,11 +41,18 @@ public class BlockHandler implements HandlerInterface {
     @Override
     public void handleMessage(PeerConnection peerconn, PeerMessage msg) {
 
-        var data = msg.getMsgData();
-        var gson = new GsonBuilder().create();
-        final Block b = gson.fromJson(data, Block.class);
-        Mempool.getInstance().removeBlockFromPool(b);
-        Bucketcoin.getInstance().chain.push(b);
+        final Block b;
+        try {
+            b = BlockCodec.decodeBlock(ByteBuffer.wrap(Broadcast.fromMessageData(msg.getMsgData())));
+        } catch(IllegalArgumentException e) {
+            Logger.getGlobal().warning("Malformed block from " + peerconn + " : " + e.getMessage());
+            return;
+        }
+        final var result = Verifier.getInstance().accept(b); // aborts mining on the old tip
+        if(!result.isValid()) {
+            Logger.getGlobal().warning("Invalid block " + b.getHash() + " from " + peerconn + " : " + result);
+            return;
+        }
         Broadcast.block(b);
 
     }
@@ -16,10 +16,11 @@
 
 package net.bucketcoin.p2p;
 
-import com.google.gson.GsonBuilder;
 import net.bucketcoin.block.Block;
+import net.bucketcoin.block.BlockCodec;
 import net.bucketcoin.block.Trade;
 import net.bucketcoin.block.Transaction;
+import net.bucketcoin.util.SerializationResources;
 import net.bucketcoin.wallet.Wallet;
 import org.jetbrains.annotations.NotNull;
 import peerbase.PeerInfo;
@@ -44,11 +45,11 @@ public class Broadcast {
     private static final Node node = Node.getInstance();
 
     /**
-     * Broadcasts a newly added block to the rest of the P2P network.
+     * Broadcasts a newly added block to the rest of the P2P network, in its {@linkplain BlockCodec binary form}.
      * @param block The block that has been added to the blockchain.
      */
     public static void block(Block block) {
-        PeerMessage p = new PeerMessage(BLOCK, new GsonBuilder().create().toJson(block));
+        PeerMessage p = new PeerMessage(BLOCK, toMessageData(BlockCodec.toBytes(block)));
         for(String peerKey : node.getPeerKeys()) {
             PeerInfo peerInfo = node.getPeer(peerKey);
             node.connectAndSend(peerInfo, BLOCK, p.getMsgData(), false);
@@ -62,7 +63,7 @@ public class Broadcast {
      * @see net.bucketcoin.node.Miner#pushBlock(Transaction, Key, byte[])
      */
     public static void transaction(@NotNull Transaction transaction, Key publicKey, byte[] signature) {
-        PeerMessage peerMessage = new PeerMessage(TRANSACTION, transaction.toString());
+        PeerMessage peerMessage = new PeerMessage(TRANSACTION, toMessageData(BlockCodec.toBytes(transaction)));
     }
     /**
      * Broadcasts the newly requested trade to the rest of the P2P network.
@@ -73,4 +74,16 @@ public class Broadcast {
 
     }
 
+    /**
+     * Carries binary data in a message, one character per byte.
+     * @see #fromMessageData(String)
+     */
+    static @NotNull String toMessageData(byte @NotNull [] data) {
+        return new String(data, SerializationResources.getStandardCharset());
+    }
+
+    static byte @NotNull [] fromMessageData(@NotNull String data) {
+        return data.getBytes(SerializationResources.getStandardCharset());
+    }
+
 }
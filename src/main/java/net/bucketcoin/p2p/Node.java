@@ -39,6 +39,13 @@ public final class Node extends peerbase.Node {
         n = new Node(0, new PeerInfo(port), wallet);
     }
 
+    /**
+     * @return Whether the node has a {@link Wallet}, so that {@link #getNodeWallet()} does not throw.
+     */
+    public static boolean isInitialized() {
+        return nodeWallet != null;
+    }
+
     public static Wallet getNodeWallet() {
         if(nodeWallet == null) {
             throw new IllegalStateException("Node is not initialized, call to init(Wallet) must be made");
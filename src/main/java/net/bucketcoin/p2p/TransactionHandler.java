@@ -16,14 +16,17 @@
 
 package net.bucketcoin.p2p;
 
-import com.google.gson.GsonBuilder;
-import net.bucketcoin.block.Block;
+import net.bucketcoin.block.BlockCodec;
+import net.bucketcoin.block.Blockable;
 import net.bucketcoin.block.Transaction;
 import net.bucketcoin.node.Mempool;
 import peerbase.HandlerInterface;
 import peerbase.PeerConnection;
 import peerbase.PeerMessage;
 
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
 public class TransactionHandler implements HandlerInterface {
 	/**
 	 * Invoked when a peer connects and sends a message to this node.
@@ -31,11 +34,19 @@ public class TransactionHandler implements HandlerInterface {
 	@Override
 	public void handleMessage(PeerConnection peerconn, PeerMessage msg) {
 
-		Block block = new Block("",
-				new GsonBuilder()
-						.create().fromJson
-								(msg.getMsgData(), Transaction.class));
+		final Blockable entry;
+		try {
+			entry = BlockCodec.decodeEntry(ByteBuffer.wrap(Broadcast.fromMessageData(msg.getMsgData())));
+		} catch(IllegalArgumentException e) {
+			Logger.getGlobal().warning("Malformed transaction from " + peerconn + " : " + e.getMessage());
+			return;
+		}
+		if(!(entry instanceof Transaction transaction)) return;
+		if(!transaction.verifySignature()) {
+			Logger.getGlobal().warning("Transaction with an invalid signature from " + peerconn);
+			return;
+		}
 
-		Mempool.getInstance().addBlockToPool(block);
+		Mempool.getInstance().addTransactionToPool(transaction);
 	}
 }
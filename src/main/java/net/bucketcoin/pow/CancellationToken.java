@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.pow;
+
+/**
+ * Signals a mining task that its work is no longer wanted. Mining workers
+ * poll the token between two hashes, so a cancelled search stops within
+ * the time of a single hash.
+ */
+public final class CancellationToken {
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Cancels the task. Cancelling an already cancelled token has no effect.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+}
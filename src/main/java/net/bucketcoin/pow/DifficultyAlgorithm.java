@@ -22,6 +22,15 @@ import java.time.Duration;
 
 public class DifficultyAlgorithm {
 
+	/**
+	 * The lowest difficulty, which every hash meets.
+	 */
+	public static final long MIN_DIFFICULTY = 0;
+	/**
+	 * The highest difficulty a block can be mined at.
+	 */
+	public static final long MAX_DIFFICULTY = 256;
+
 	@Getter
 	private static long difficulty = 1L;
 
@@ -35,7 +44,7 @@ public class DifficultyAlgorithm {
 	 * the {@linkplain Duration} taken to mine the blocks, in the Bucketcoin formula.
 	 * @param blocksMined The number of blocks mined (not only by this node) and broadcasted to the {@link net.bucketcoin.p2p.Node}.
 	 * @param duration The duration taken to mine the blocks. This should be recorded by the {@link net.bucketcoin.crypto.Bucketcoin} class.
-	 * @return The calculated difficulty.
+	 * @return The calculated difficulty, clamped to [{@link #MIN_DIFFICULTY}, {@link #MAX_DIFFICULTY}].
 	 */
 	public static long calculateDifficulty(int blocksMined, Duration duration) {
 
@@ -50,9 +59,9 @@ public class DifficultyAlgorithm {
 			x++;
 		}
 
-		difficulty = x - 4;
+		difficulty = Math.max(MIN_DIFFICULTY, Math.min(MAX_DIFFICULTY, x - 4));
 
-		return x - 4;
+		return difficulty;
 
 	}
 
@@ -64,6 +73,42 @@ public class DifficultyAlgorithm {
 		return s.toString();
 	}
 
+	/**
+	 * Checks whether a raw hash has at least <i>difficulty</i> leading zero nibbles, which is
+	 * the same as its hexadecimal string starting with {@link #getDifficultyString(long)}.
+	 * @param hash The raw hash.
+	 * @param difficulty The number of leading zero nibbles required.
+	 * @return Whether the hash meets the difficulty.
+	 * @throws IllegalArgumentException if the difficulty is not {@linkplain #isValid(long) valid}.
+	 */
+	public static boolean meetsDifficulty(byte[] hash, long difficulty) {
+		checkDifficulty(difficulty);
+		if(difficulty > hash.length * 2L) return false;
+		final int bytes = (int) (difficulty >>> 1);
+		for(int i = 0; i < bytes; i++) {
+			if(hash[i] != 0) return false;
+		}
+		return (difficulty & 1) == 0 || (hash[bytes] & 0xF0) == 0;
+	}
+
+	/**
+	 * @param difficulty The difficulty.
+	 * @return Whether the difficulty is within [{@link #MIN_DIFFICULTY}, {@link #MAX_DIFFICULTY}].
+	 */
+	public static boolean isValid(long difficulty) {
+		return difficulty >= MIN_DIFFICULTY && difficulty <= MAX_DIFFICULTY;
+	}
+
+	/**
+	 * @param difficulty The difficulty.
+	 * @return The difficulty.
+	 * @throws IllegalArgumentException if the difficulty is not {@linkplain #isValid(long) valid}.
+	 */
+	public static long checkDifficulty(long difficulty) {
+		if(!isValid(difficulty)) throw new IllegalArgumentException("Difficulty out of range : " + difficulty);
+		return difficulty;
+	}
+
 	private static long getTarget() {
 		return 11520 / 1500;
 	}
@@ -0,0 +1,249 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.pow;
+
+import lombok.Getter;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+/**
+ * A parallel proof-of-work search. The nonce space is split into disjoint
+ * ranges, one per worker, and every worker stops as soon as one of them
+ * finds a solution or the search is cancelled.
+ * @apiNote Only one search runs on an engine at a time; {@link #mine(byte[], int, long, long, CancellationToken)}
+ * blocks the calling thread until the search ends.
+ */
+public final class MiningEngine implements Closeable {
+
+	/**
+	 * The number of distinct nonces a search walks through before giving up.
+	 */
+	public static final long NONCE_SPACE = 1L << 32;
+
+	private static final AtomicInteger engineCount = new AtomicInteger(0);
+
+	@Getter
+	private final int workers;
+	private final ExecutorService executorService;
+	private volatile @Nullable Search current;
+
+	/**
+	 * Creates an engine with one worker per available processor.
+	 */
+	public MiningEngine() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an engine with the specified number of workers.
+	 * @param workers The number of worker threads. Each worker is a dedicated platform thread.
+	 * @throws IllegalArgumentException if <code>workers < 1</code>.
+	 */
+	public MiningEngine(int workers) {
+		if(workers < 1) throw new IllegalArgumentException("An engine needs at least one worker");
+		this.workers = workers;
+		final int engine = engineCount.getAndIncrement();
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		this.executorService = Executors.newFixedThreadPool(workers, r -> {
+			var t = new Thread(null, r, "miner-" + engine + "-" + threadCount.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Searches the nonce space starting at <i>startNonce</i> for a header hash
+	 * meeting the difficulty.
+	 * @param header The header to hash. Every worker hashes its own copy.
+	 * @param nonceOffset Where the 8-byte big-endian nonce sits in the header.
+	 * @param startNonce The nonce the first worker starts from.
+	 * @param difficulty The number of leading zero nibbles required, see {@link DifficultyAlgorithm#meetsDifficulty(byte[], long)}.
+	 * @param token The token that cancels this search.
+	 * @return The solution, or <code>null</code> if the search was cancelled through <i>token</i> or
+	 * {@link #cancel()}, or the nonce space was exhausted.
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for the workers.
+	 */
+	public synchronized @Nullable Solution mine(byte @NotNull [] header, int nonceOffset, long startNonce, long difficulty, @NotNull CancellationToken token) throws InterruptedException {
+
+		final Search search = new Search(workers, token, null);
+		final List<WorkerStats> stats = run(search, header, nonceOffset, startNonce, difficulty);
+
+		var winner = search.winner.get();
+		if(winner == null || token.isCancelled()) return null;
+		Logger.getGlobal().info("Solution accepted : " + winner.hash());
+		return new Solution(winner.nonce(), winner.hash(), stats);
+
+	}
+
+	/**
+	 * Walks the whole nonce space starting at <i>startNonce</i> and reports every nonce whose header
+	 * hash meets the difficulty, without stopping at the first one. This is how pool clients find shares.
+	 * @param header The header to hash. Every worker hashes its own copy.
+	 * @param nonceOffset Where the 8-byte big-endian nonce sits in the header.
+	 * @param startNonce The nonce the first worker starts from.
+	 * @param difficulty The number of leading zero nibbles required, see {@link DifficultyAlgorithm#meetsDifficulty(byte[], long)}.
+	 * @param token The token that cancels this search.
+	 * @param shares Called from the worker threads with every nonce found.
+	 * @return The throughput of every worker during the search.
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for the workers.
+	 */
+	public synchronized @NotNull List<WorkerStats> search(byte @NotNull [] header, int nonceOffset, long startNonce, long difficulty,
+														  @NotNull CancellationToken token, @NotNull LongConsumer shares) throws InterruptedException {
+		return run(new Search(workers, token, shares), header, nonceOffset, startNonce, difficulty);
+	}
+
+	private List<WorkerStats> run(Search search, byte[] header, int nonceOffset, long startNonce, long difficulty) throws InterruptedException {
+
+		final long span = NONCE_SPACE / workers;
+		final List<Future<?>> futures = new ArrayList<>(workers);
+
+		current = search;
+		try {
+			for(int i = 0; i < workers; i++) {
+				final int worker = i;
+				final long from = i * span;
+				final long to = i == workers - 1 ? NONCE_SPACE : from + span;
+				futures.add(executorService.submit(() -> search.run(worker, new PowHasher(header, nonceOffset), startNonce, from, to, difficulty)));
+			}
+			for(Future<?> future : futures) {
+				future.get();
+			}
+		} catch(ExecutionException e) {
+			throw new IllegalStateException("A mining worker failed", e.getCause());
+		} finally {
+			search.stop();
+			current = null;
+		}
+
+		final List<WorkerStats> stats = List.of(search.stats);
+		for(WorkerStats s : stats) {
+			Logger.getGlobal().fine(s.toString());
+		}
+		return stats;
+
+	}
+
+	/**
+	 * Stops the search in progress, if any. The pending {@link #mine(byte[], int, long, long, CancellationToken)} call returns <code>null</code>.
+	 */
+	public void cancel() {
+		var search = current;
+		if(search != null) search.stop();
+	}
+
+	/**
+	 * Cancels the search in progress and releases the worker threads.
+	 */
+	@Override
+	public void close() {
+		cancel();
+		executorService.shutdownNow();
+	}
+
+	/**
+	 * A nonce that satisfies the difficulty.
+	 * @param nonce The winning nonce.
+	 * @param hash The hash of the winning nonce in a hexadecimal string.
+	 * @param workerStats The throughput of every worker during the search.
+	 */
+	public record Solution(long nonce, @NotNull String hash, @NotNull List<WorkerStats> workerStats) {
+
+		public double getHashesPerSecond() {
+			return workerStats.stream().mapToDouble(WorkerStats::getHashesPerSecond).sum();
+		}
+
+	}
+
+	/**
+	 * The work done by a single worker during a search.
+	 * @param worker The worker index.
+	 * @param hashes The number of hashes computed.
+	 * @param nanos The time spent computing them, in nanoseconds.
+	 */
+	public record WorkerStats(int worker, long hashes, long nanos) {
+
+		public double getHashesPerSecond() {
+			return nanos == 0 ? 0 : hashes * 1_000_000_000D / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Miner worker %d : %d hashes, %.0f H/s", worker, hashes, getHashesPerSecond());
+		}
+
+	}
+
+	private static final class Search {
+
+		private final AtomicReference<Winner> winner = new AtomicReference<>();
+		private final WorkerStats[] stats;
+		private final CancellationToken token;
+		private final @Nullable LongConsumer shares;
+		private volatile boolean stopped = false;
+
+		private Search(int workers, CancellationToken token, @Nullable LongConsumer shares) {
+			this.stats = new WorkerStats[workers];
+			this.token = token;
+			this.shares = shares;
+		}
+
+		private void stop() {
+			stopped = true;
+		}
+
+		private void run(int worker, PowHasher hasher, long startNonce, long from, long to, long difficulty) {
+
+			final long start = System.nanoTime();
+			long hashes = 0;
+
+			for(long offset = from; offset < to && !stopped && !token.isCancelled(); offset++) {
+				final long nonce = startNonce + offset;
+				final byte[] hash = hasher.hash(nonce);
+				hashes++;
+				if(DifficultyAlgorithm.meetsDifficulty(hash, difficulty)) {
+					if(shares != null) {
+						shares.accept(nonce);
+						continue;
+					}
+					winner.compareAndSet(null, new Winner(nonce, new String(Hex.encodeHex(hash))));
+					stopped = true;
+					break;
+				}
+			}
+
+			stats[worker] = new WorkerStats(worker, hashes, System.nanoTime() - start);
+
+		}
+
+		private record Winner(long nonce, String hash) {}
+
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.pow;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Hashes a header with varying nonces without allocating. The digest state of every
+ * full 64-byte compression block before the nonce (the <i>midstate</i>) is computed once;
+ * every attempt restores the midstate, writes the nonce straight into a private copy of
+ * the header tail and only compresses that tail into a reused output buffer.
+ * @apiNote Instances are not thread-safe; every mining worker owns its own hasher.
+ * @see net.bucketcoin.block.BlockHeader
+ */
+public final class PowHasher {
+
+	/**
+	 * The proof-of-work hash, {@link net.bucketcoin.util.CryptoResources#HASH_ALGORITHM}.
+	 */
+	public static final String ALGORITHM = "SHA-256";
+	public static final int BLOCK_LENGTH = 64;
+
+	private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private final SHA256Digest digest = new SHA256Digest();
+	private final SHA256Digest midstate;
+	private final byte[] tail;
+	private final int nonceOffset;
+	private final byte[] out = new byte[digest.getDigestSize()];
+
+	/**
+	 * Creates a hasher for the header and computes its midstate.
+	 * @param header The header bytes. These are copied.
+	 * @param nonceOffset Where the 8-byte big-endian nonce is written in the header.
+	 * @throws IllegalArgumentException if the nonce does not fit in the header at <i>nonceOffset</i>.
+	 */
+	public PowHasher(byte @NotNull [] header, int nonceOffset) {
+		if(nonceOffset < 0 || nonceOffset > header.length - Long.BYTES)
+			throw new IllegalArgumentException("Nonce offset " + nonceOffset + " out of header bounds");
+		final int prefix = nonceOffset - nonceOffset % BLOCK_LENGTH;
+		digest.update(header, 0, prefix);
+		this.midstate = new SHA256Digest(digest);
+		this.tail = Arrays.copyOfRange(header, prefix, header.length);
+		this.nonceOffset = nonceOffset - prefix;
+	}
+
+	/**
+	 * Hashes the header with the nonce.
+	 * @param nonce The nonce to try.
+	 * @return The digest. The array is reused by the next call, so copy it if it has to be kept.
+	 */
+	public byte @NotNull [] hash(long nonce) {
+		digest.reset(midstate);
+		LONG_BE.set(tail, nonceOffset, nonce);
+		digest.update(tail, 0, tail.length);
+		digest.doFinal(out, 0);
+		return out;
+	}
+
+}
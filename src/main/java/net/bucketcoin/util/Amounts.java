@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.util;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+
+/**
+ * Amounts of BCKT are <code>long</code>s counting the base unit, 0.000001 BCKT, so that balances and fees add up
+ * exactly and compare as integers. Arithmetic on amounts is checked: an overflow throws an {@link ArithmeticException}
+ * instead of wrapping around, like {@link Math#addExact(long, long)}.
+ */
+public final class Amounts {
+
+	/**
+	 * The number of digits after the decimal point of an amount in BCKT.
+	 */
+	public static final int DECIMALS = 6;
+	/**
+	 * The number of base units in one BCKT.
+	 */
+	public static final long UNITS_PER_BCKT = 1_000_000;
+
+	private Amounts() {}
+
+	/**
+	 * @param bckt A whole number of BCKT.
+	 * @return The amount in base units.
+	 * @throws ArithmeticException if the amount overflows.
+	 */
+	@Contract(pure = true)
+	public static long ofBckt(long bckt) {
+		return Math.multiplyExact(bckt, UNITS_PER_BCKT);
+	}
+
+	/**
+	 * Parses an amount in BCKT, such as <code>"694.2"</code>.
+	 * @param bckt The amount in BCKT, with at most {@link #DECIMALS} decimals.
+	 * @return The amount in base units.
+	 * @throws NumberFormatException if <i>bckt</i> is not a number.
+	 * @throws ArithmeticException if <i>bckt</i> has more decimals than a base unit, or overflows.
+	 */
+	@Contract(pure = true)
+	public static long parse(@NotNull String bckt) {
+		return new BigDecimal(bckt).movePointRight(DECIMALS).longValueExact();
+	}
+
+	/**
+	 * Formats an amount in BCKT, without trailing zeros.
+	 * @param units The amount in base units.
+	 */
+	@Contract(pure = true)
+	public static @NotNull String format(long units) {
+		return BigDecimal.valueOf(units, DECIMALS).stripTrailingZeros().toPlainString();
+	}
+
+	/**
+	 * @throws ArithmeticException if the sum overflows.
+	 */
+	@Contract(pure = true)
+	public static long add(long a, long b) {
+		return Math.addExact(a, b);
+	}
+
+	/**
+	 * @throws ArithmeticException if the difference overflows.
+	 */
+	@Contract(pure = true)
+	public static long subtract(long a, long b) {
+		return Math.subtractExact(a, b);
+	}
+
+	/**
+	 * @throws ArithmeticException if the product overflows.
+	 */
+	@Contract(pure = true)
+	public static long multiply(long amount, long factor) {
+		return Math.multiplyExact(amount, factor);
+	}
+
+	/**
+	 * Checks that an amount can be transferred.
+	 * @return <i>units</i>.
+	 * @throws IllegalArgumentException if <i>units</i> is negative.
+	 */
+	@Contract("_ -> param1")
+	public static long requireValid(long units) {
+		if(units < 0) throw new IllegalArgumentException("Amount must not be negative : " + units);
+		return units;
+	}
+
+}
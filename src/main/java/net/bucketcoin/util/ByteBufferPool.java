@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.util;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A bounded pool of heap {@link ByteBuffer}s of one capacity, so that encoding does not allocate
+ * a buffer for every message. Buffers released beyond the bound, or of another capacity, are left to the garbage collector.
+ * @apiNote The pool is safe for concurrent use; a buffer belongs to one thread between {@link #acquire()} and {@link #release(ByteBuffer)}.
+ */
+public final class ByteBufferPool {
+
+	@Getter
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedDeque<ByteBuffer> buffers = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger pooled = new AtomicInteger(0);
+
+	/**
+	 * Creates a pool.
+	 * @param bufferSize The capacity of every buffer.
+	 * @param maxPooled How many released buffers are kept.
+	 * @throws IllegalArgumentException if <code>bufferSize < 1</code> or <code>maxPooled < 0</code>.
+	 */
+	public ByteBufferPool(int bufferSize, int maxPooled) {
+		if(bufferSize < 1 || maxPooled < 0) throw new IllegalArgumentException("Invalid buffer pool size");
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return A cleared buffer of {@link #getBufferSize()} bytes.
+	 */
+	public @NotNull ByteBuffer acquire() {
+		final ByteBuffer b = buffers.pollFirst();
+		if(b == null) return ByteBuffer.allocate(bufferSize);
+		pooled.decrementAndGet();
+		return b.clear();
+	}
+
+	/**
+	 * Gives a buffer back to the pool. The buffer must not be used afterwards.
+	 * @param buffer The buffer.
+	 */
+	public void release(@NotNull ByteBuffer buffer) {
+		if(buffer.capacity() != bufferSize || buffer.isReadOnly()) return;
+		if(pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.offerFirst(buffer);
+	}
+
+	/**
+	 * Runs <i>writer</i> on a pooled buffer, and on twice larger buffers as long as it overflows them.
+	 * @param writer Writes into the buffer and returns what is made of its contents; the buffer is reused afterwards.
+	 * @param <T> The result type.
+	 * @return What <i>writer</i> returned.
+	 */
+	public <T> T write(@NotNull Function<ByteBuffer, T> writer) {
+		ByteBuffer b = acquire();
+		try {
+			while(true) {
+				try {
+					return writer.apply(b);
+				} catch(BufferOverflowException overflow) {
+					if(b.capacity() > Integer.MAX_VALUE / 2) throw overflow;
+					final var larger = ByteBuffer.allocate(b.capacity() * 2);
+					release(b);
+					b = larger;
+				}
+			}
+		} finally {
+			release(b);
+		}
+	}
+
+}
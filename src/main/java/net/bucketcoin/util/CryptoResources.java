@@ -18,6 +18,8 @@ package net.bucketcoin.util;
 
 import lombok.SneakyThrows;
 import net.bucketcoin.wallet.Wallet;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.bouncycastle.jcajce.provider.digest.SHA256;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.jetbrains.annotations.Contract;
@@ -27,19 +29,25 @@ import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import java.security.*;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
 
 /**
  * This class is a centralized resource class that holds
  * necessary cryptography objects.
  * @apiNote All instances returned are 'initialized', except
- * {@link CryptoResources#getStandardCipher()} and {@link
- * CryptoResources#getStandardDigest()}.
+ * {@link CryptoResources#getStandardCipher()}, {@link
+ * CryptoResources#getStandardDigest()} and {@link CryptoResources#getStandardSignature()}.
  */
 public final class CryptoResources {
 
 	public static final int KEY_SIZE = 512;
 	public static final String HASH_ALGORITHM = "SHA-256";
 	public static final String ALGORITHM = "";
+	/**
+	 * The algorithm transactions are signed with, matching the EC keys of {@link #getStandardKeyPairGenerator()}.
+	 */
+	public static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
 
 	public enum AlgorithmType {
 
@@ -85,6 +93,44 @@ public final class CryptoResources {
 		return KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
 	}
 
+	@SneakyThrows
+	@Contract(" -> new")
+	public static @NotNull Signature getStandardSignature() {
+		return Signature.getInstance(SIGNATURE_ALGORITHM, BouncyCastleProvider.PROVIDER_NAME);
+	}
+
+	/**
+	 * Encodes a public key as the hexadecimal form of its X.509 encoding, which is how accounts are named in transactions.
+	 * @see #decodePublicKey(String)
+	 */
+	public static @NotNull String encodePublicKey(@NotNull PublicKey key) {
+		return new String(Hex.encodeHex(key.getEncoded()));
+	}
+
+	/**
+	 * Decodes a public key {@linkplain #encodePublicKey(PublicKey) encoded} as hexadecimal.
+	 * @throws InvalidKeySpecException if <i>encoded</i> is not an encoded EC public key.
+	 */
+	@SneakyThrows({NoSuchAlgorithmException.class, NoSuchProviderException.class})
+	public static @NotNull PublicKey decodePublicKey(@NotNull String encoded) throws InvalidKeySpecException {
+		return decodePublicKey(encoded, KeyFactory.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME));
+	}
+
+	/**
+	 * Decodes a public key {@linkplain #encodePublicKey(PublicKey) encoded} as hexadecimal with an existing EC key factory.
+	 * @throws InvalidKeySpecException if <i>encoded</i> is not an encoded EC public key.
+	 * @see SignatureVerifier
+	 */
+	public static @NotNull PublicKey decodePublicKey(@NotNull String encoded, @NotNull KeyFactory factory) throws InvalidKeySpecException {
+		final byte[] bytes;
+		try {
+			bytes = Hex.decodeHex(encoded.toCharArray());
+		} catch(DecoderException e) {
+			throw new InvalidKeySpecException(e);
+		}
+		return factory.generatePublic(new X509EncodedKeySpec(bytes));
+	}
+
 	@Contract(" -> new")
 	public static @NotNull SecureRandom getRNG() {
 		return new SecureRandom();
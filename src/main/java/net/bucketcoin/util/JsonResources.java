@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the {@link Gson} instance shared by the whole node, for the places JSON is still used,
+ * such as RPC, signatures and debugging. Building a {@link Gson} is expensive and it caches the type adapters
+ * it creates, so a single instance is created once and reused; it is thread-safe.
+ * <br><br>
+ * The core types ({@link net.bucketcoin.block.Block}, {@link net.bucketcoin.block.Blockable},
+ * {@link net.bucketcoin.block.Transaction}, {@link net.bucketcoin.block.Trade},
+ * {@link net.bucketcoin.crypto.state.StateTrie.AddressProperties}, {@link net.bucketcoin.crypto.state.StorageTrie}
+ * and {@link net.bucketcoin.collections.HashChainBlock}) are bound to hand-written streaming adapters with
+ * {@link com.google.gson.annotations.JsonAdapter}, next to the state they read, so they are encoded without
+ * reflection. {@link Timestamp}s are encoded as milliseconds since the epoch, which unlike the default date
+ * format loses nothing.
+ */
+public final class JsonResources {
+
+	private static final Gson gson = new GsonBuilder()
+			.registerTypeAdapter(Timestamp.class, new TimestampAdapter().nullSafe())
+			.create();
+
+	private JsonResources() {}
+
+	public static @NotNull Gson getGson() {
+		return gson;
+	}
+
+	/**
+	 * Reads a string that may be <code>null</code>, for adapters of types with nullable string fields.
+	 */
+	public static @Nullable String nextString(@NotNull JsonReader in) throws IOException {
+		if(in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+	/**
+	 * Reads any JSON value as plain Java objects: <code>null</code>, {@link Boolean}s, {@link String}s, {@link BigDecimal}s,
+	 * {@link List}s and {@link Map}s. Unlike reading an {@link Object} with {@link Gson}, numbers are not turned into
+	 * {@link Double}s, so that <code>2</code> is written back as <code>2</code> and not <code>2.0</code>.
+	 */
+	public static @Nullable Object readValue(@NotNull JsonReader in) throws IOException {
+		switch(in.peek()) {
+			case BEGIN_ARRAY -> {
+				final List<Object> list = new ArrayList<>();
+				in.beginArray();
+				while(in.hasNext()) list.add(readValue(in));
+				in.endArray();
+				return list;
+			}
+			case BEGIN_OBJECT -> {
+				final Map<String, Object> map = new LinkedHashMap<>();
+				in.beginObject();
+				while(in.hasNext()) map.put(in.nextName(), readValue(in));
+				in.endObject();
+				return map;
+			}
+			case STRING -> {
+				return in.nextString();
+			}
+			case NUMBER -> {
+				return new BigDecimal(in.nextString());
+			}
+			case BOOLEAN -> {
+				return in.nextBoolean();
+			}
+			case NULL -> {
+				in.nextNull();
+				return null;
+			}
+			default -> throw new JsonSyntaxException("Expected a value but was " + in.peek());
+		}
+	}
+
+	/**
+	 * Parses a JSON value as {@linkplain #readValue(JsonReader) plain Java objects}.
+	 */
+	public static @Nullable Object parseValue(@NotNull String json) {
+		try {
+			return readValue(new JsonReader(new StringReader(json)));
+		} catch(IOException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	private static final class TimestampAdapter extends TypeAdapter<Timestamp> {
+
+		@Override
+		public void write(JsonWriter out, Timestamp value) throws IOException {
+			out.value(value.getTime());
+		}
+
+		@Override
+		public Timestamp read(JsonReader in) throws IOException {
+			return new Timestamp(in.nextLong());
+		}
+
+	}
+
+}
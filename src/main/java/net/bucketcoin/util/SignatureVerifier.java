@@ -0,0 +1,205 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.util;
+
+import lombok.Setter;
+import lombok.SneakyThrows;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.InvalidKeySpecException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Verifies {@link CryptoResources#SIGNATURE_ALGORITHM} signatures, one at a time or in batches that are
+ * split across a {@link ForkJoinPool}. Every thread keeps its own {@link Signature} and {@link KeyFactory},
+ * so the provider is only looked up once per thread, and decoded public keys are cached by their encoding,
+ * since the same senders sign many transactions.
+ * @apiNote This class is thread-safe.
+ */
+public final class SignatureVerifier {
+
+	/**
+	 * The number of signatures below which a batch is not split further.
+	 */
+	public static final int BATCH = 16;
+	/**
+	 * The number of decoded public keys kept. The cache is emptied once it is full.
+	 */
+	public static final int KEY_CACHE_SIZE = 4096;
+
+	private static final SignatureVerifier signatureVerifier = new SignatureVerifier();
+
+	private final ThreadLocal<Signature> signatures = ThreadLocal.withInitial(CryptoResources::getStandardSignature);
+	private final ThreadLocal<KeyFactory> keyFactories = ThreadLocal.withInitial(SignatureVerifier::newKeyFactory);
+	private final Map<String, PublicKey> keys = new ConcurrentHashMap<>();
+	/**
+	 * The pool batches are verified on, by default the common pool.
+	 */
+	@Setter @NotNull
+	private volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	private SignatureVerifier() {
+		/* This is a singleton class. */
+	}
+
+	public static SignatureVerifier getInstance() {
+		return signatureVerifier;
+	}
+
+	/**
+	 * Verifies a signature on the calling thread.
+	 * @param message The signed bytes.
+	 * @param key The public key of the signer.
+	 * @param signature The signature.
+	 * @return Whether <i>signature</i> is a valid signature of <i>message</i> by <i>key</i>.
+	 */
+	public boolean verify(byte @NotNull [] message, @NotNull PublicKey key, byte @NotNull [] signature) {
+		final Signature s = signatures.get();
+		try {
+			s.initVerify(key);
+			s.update(message);
+			return s.verify(signature);
+		} catch(GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Verifies a signature on the calling thread.
+	 * @return Whether the request is signed by its account. A request whose account is not an encoded public key is not.
+	 */
+	public boolean verify(@NotNull Request request) {
+		final PublicKey key = decode(request.account());
+		return key != null && verify(request.message(), key, request.signature());
+	}
+
+	/**
+	 * Verifies every signature of a batch.
+	 * @param requests The batch.
+	 * @return Whether each request is validly signed, in order.
+	 */
+	public boolean @NotNull [] verifyAll(@NotNull List<Request> requests) {
+		final boolean[] valid = new boolean[requests.size()];
+		run(new Batch(requests, valid, 0, requests.size(), false));
+		return valid;
+	}
+
+	/**
+	 * Verifies the signatures of a batch until one is invalid.
+	 * @param requests The batch.
+	 * @return The index of an invalid request, not necessarily the first, or -1 if every request is validly signed.
+	 */
+	public int findInvalid(@NotNull List<Request> requests) {
+		final Integer invalid = run(new Batch(requests, null, 0, requests.size(), true));
+		return invalid == null ? -1 : invalid;
+	}
+
+	private Integer run(Batch batch) {
+		return batch.to - batch.from <= BATCH ? batch.compute() : pool.invoke(batch);
+	}
+
+	private @Nullable PublicKey decode(String account) {
+		final PublicKey cached = keys.get(account);
+		if(cached != null) return cached;
+		final PublicKey key;
+		try {
+			key = CryptoResources.decodePublicKey(account, keyFactories.get());
+		} catch(InvalidKeySpecException e) {
+			return null;
+		}
+		if(keys.size() >= KEY_CACHE_SIZE) keys.clear();
+		keys.put(account, key);
+		return key;
+	}
+
+	@SneakyThrows
+	private static KeyFactory newKeyFactory() {
+		return KeyFactory.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+	}
+
+	/**
+	 * A signature to verify.
+	 * @param message The signed bytes.
+	 * @param account The {@linkplain CryptoResources#encodePublicKey(PublicKey) encoded public key} of the signer.
+	 * @param signature The signature.
+	 */
+	public record Request(byte @NotNull [] message, @NotNull String account, byte @NotNull [] signature) {}
+
+	/**
+	 * Verifies a range of a batch, splitting it in halves down to {@link #BATCH}. When the batch stops at an invalid
+	 * signature, the tasks that have not started yet return at once after one is found.
+	 */
+	private final class Batch extends RecursiveTask<Integer> {
+
+		private final List<Request> requests;
+		private final boolean @Nullable [] valid;
+		private final int from, to;
+		private final boolean stopOnInvalid;
+		private final Batch root;
+		private volatile boolean invalid;
+
+		private Batch(List<Request> requests, boolean @Nullable [] valid, int from, int to, boolean stopOnInvalid) {
+			this(requests, valid, from, to, stopOnInvalid, null);
+		}
+
+		private Batch(List<Request> requests, boolean @Nullable [] valid, int from, int to, boolean stopOnInvalid, @Nullable Batch root) {
+			this.requests = requests;
+			this.valid = valid;
+			this.from = from;
+			this.to = to;
+			this.stopOnInvalid = stopOnInvalid;
+			this.root = root == null ? this : root;
+		}
+
+		@Override
+		protected Integer compute() {
+			if(stopOnInvalid && root.invalid) return null;
+			if(to - from > BATCH) {
+				final int mid = (from + to) >>> 1;
+				final var left = new Batch(requests, valid, from, mid, stopOnInvalid, root);
+				left.fork();
+				final Integer right = new Batch(requests, valid, mid, to, stopOnInvalid, root).compute();
+				final Integer l = left.join();
+				return l != null ? l : right;
+			}
+			Integer first = null;
+			for(int i = from; i < to; i++) {
+				if(stopOnInvalid && root.invalid) return null;
+				final boolean ok = verify(requests.get(i));
+				if(valid != null) valid[i] = ok;
+				if(!ok && first == null) {
+					first = i;
+					root.invalid = true;
+					if(stopOnInvalid) return first;
+				}
+			}
+			return first;
+		}
+
+	}
+
+}
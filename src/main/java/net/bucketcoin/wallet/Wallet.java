@@ -54,13 +54,28 @@ public class Wallet {
         message.send(this);
     }
 
+    /**
+     * Returns the account of this wallet, which names it in transactions and in the state: its
+     * {@linkplain CryptoResources#encodePublicKey(PublicKey) encoded public key}.
+     */
+    public @NotNull String getAccount() {
+        return CryptoResources.encodePublicKey(publicKey);
+    }
+
+    /**
+     * Returns the key of this wallet's account in the {@link StateTrie}: its {@linkplain #getAccount() account} in ISO-8859-1.
+     */
     public byte[] asBytes() {
-        return getAddress().getBytes(StandardCharsets.ISO_8859_1);
+        return getAccount().getBytes(StandardCharsets.ISO_8859_1);
     }
 
-    public boolean hasEnough(double price) {
-        var a = StateTrie.queryAddress(getAddress().getBytes(StandardCharsets.ISO_8859_1));
-        return price <= a.balance();
+    /**
+     * @param price An amount in {@linkplain net.bucketcoin.util.Amounts base units}.
+     * @return Whether the balance of this wallet covers <i>price</i>.
+     */
+    public boolean hasEnough(long price) {
+        var a = StateTrie.queryAddress(asBytes());
+        return price <= (a == null ? 0 : a.balance());
     }
 
     public static final class NullWallet extends Wallet {
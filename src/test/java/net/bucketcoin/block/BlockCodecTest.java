@@ -0,0 +1,200 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.block;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BlockCodecTest {
+
+    private static final String ALICE = "3059301306072a8648ce3d020106082a8648ce3d03010703420004aa";
+    private static final String BOB = "3059301306072a8648ce3d020106082a8648ce3d03010703420004bb";
+
+    @Test
+    public void transactionsRoundTrip() {
+        final List<Transaction> transactions = List.of(
+                new Transaction(1_500_000, ALICE, BOB, 1_000, 7, "3045022100ff"),
+                new Transaction(0, ALICE, BOB, 0, 0),
+                new Transaction(Long.MAX_VALUE, "rewards", BOB, Long.MAX_VALUE),
+                new Transaction(42, "\u00dcn\u00efcode sender", "ABCDEF", 3, Long.MAX_VALUE));
+        for(Transaction t : transactions) {
+            final Transaction decoded = (Transaction) roundTrip(t);
+            assertEquals(t.toString(), decoded.toString());
+            assertEquals(t.getNonce(), decoded.getNonce());
+            assertEquals(t.getSignature(), decoded.getSignature());
+        }
+    }
+
+    @Test
+    public void tradesRoundTripExactly() {
+        final List<Object> toSend = Arrays.asList(
+                9_007_199_254_740_993L, // 2^53 + 1, which a double rounds
+                Long.MIN_VALUE,
+                new BigDecimal("0.1000000000000000055511151231257827"),
+                new BigDecimal("1E+3"),
+                new BigInteger("123456789012345678901234567890"),
+                null, "item", true, false, List.of("nested", "list"));
+        final Trade trade = new Trade(toSend, List.of(), ALICE, BOB, 25);
+        final Trade decoded = (Trade) roundTrip(trade);
+        assertEquals(Arrays.asList(
+                9_007_199_254_740_993L,
+                Long.MIN_VALUE,
+                new BigDecimal("0.1000000000000000055511151231257827"),
+                new BigDecimal("1E+3"),
+                new BigDecimal("123456789012345678901234567890"),
+                null, "item", true, false, List.of("nested", "list")), decoded.getToSend());
+        assertEquals(List.of(), decoded.getToGet());
+        assertEquals(ALICE, decoded.getSender());
+        assertEquals(BOB, decoded.getRecipient());
+        assertEquals(25, decoded.getGasFee());
+    }
+
+    @Test
+    public void smallNumbersAreReadAsLongs() {
+        final Trade trade = new Trade(List.of(5, (short) -3, new BigDecimal("12"), new BigInteger("-7")), List.of(0.5), ALICE, BOB, 0);
+        final Trade decoded = (Trade) roundTrip(trade);
+        assertEquals(List.of(5L, -3L, 12L, -7L), decoded.getToSend());
+        assertEquals(List.of(new BigDecimal("0.5")), decoded.getToGet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonFiniteNumbersAreNotEncoded() {
+        BlockCodec.toBytes(new Trade(List.of(Double.POSITIVE_INFINITY), List.of(), ALICE, BOB, 0));
+    }
+
+    @Test
+    public void blocksRoundTrip() {
+        final Block block = new Block("00ab", new Transaction(5, ALICE, BOB, 1, 0, "30"), new Transaction(6, ALICE, BOB, 2, 1, "31"),
+                new Trade(List.of(1L), List.of("x"), BOB, ALICE, 3));
+        block.seal(4, 123_456_789);
+        final byte[] record = BlockCodec.toBytes(block);
+        final Block decoded = BlockCodec.decodeBlock(ByteBuffer.wrap(record));
+        assertEquals(block.getHash(), decoded.getHash());
+        assertEquals(block.getTransactionRoot(), decoded.getTransactionRoot());
+        assertEquals(block.getTimestamp(), decoded.getTimestamp());
+        assertEquals(block.getDifficulty(), decoded.getDifficulty());
+        assertEquals(block.getNonce(), decoded.getNonce());
+        assertEquals(block.getGasFee(), decoded.getGasFee());
+        assertEquals(block.getBlockEntries().length, decoded.getBlockEntries().length);
+        assertArrayEquals(record, BlockCodec.toBytes(decoded));
+    }
+
+    @Test
+    public void sizeMatchesTheRecord() {
+        final Transaction t = new Transaction(1, ALICE, BOB, 1, 1, "3045");
+        assertEquals(BlockCodec.toBytes(t).length, BlockCodec.sizeOf(t));
+    }
+
+    @Test
+    public void everyTruncationIsRejected() {
+        final Block block = new Block("00ab", new Transaction(5, ALICE, BOB, 1, 0, "30"),
+                new Trade(List.of(new BigDecimal("2.5")), List.of("x"), BOB, ALICE, 3));
+        final byte[] record = BlockCodec.toBytes(block);
+        for(int length = 0; length < record.length; length++) {
+            final ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(record, length));
+            try {
+                BlockCodec.decodeBlock(truncated);
+                fail("Decoded a block cut at " + length + " of " + record.length + " bytes");
+            } catch(IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherVersionsAreRejected() {
+        final byte[] record = BlockCodec.toBytes(new Transaction(1, ALICE, BOB, 1, 0));
+        record[0] = BlockCodec.VERSION + 1;
+        BlockCodec.decodeEntry(ByteBuffer.wrap(record));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void entriesAreNotBlocks() {
+        BlockCodec.decodeBlock(ByteBuffer.wrap(BlockCodec.toBytes(new Transaction(1, ALICE, BOB, 1, 0))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownEntryTypesAreRejected() {
+        BlockCodec.decodeEntry(ByteBuffer.wrap(new byte[] {BlockCodec.VERSION, 99, 0}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overlongVarintsAreRejected() {
+        final byte[] record = new byte[16];
+        record[0] = BlockCodec.VERSION;
+        record[1] = BlockCodec.TRANSACTION;
+        Arrays.fill(record, 2, record.length, (byte) 0xFF);
+        BlockCodec.decodeEntry(ByteBuffer.wrap(record));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void opaqueEntriesAreNotDecoded() {
+        final Blockable opaque = new Blockable() {
+            @Override
+            public long getGasFee() {
+                return 0;
+            }
+
+            @Override
+            public String toString() {
+                return "{\"opaque\":true}";
+            }
+        };
+        BlockCodec.decodeEntry(ByteBuffer.wrap(BlockCodec.toBytes(opaque)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongTransactionRootIsRejected() {
+        final Block block = new Block("00ab", new Transaction(5, ALICE, BOB, 1, 0, "30"));
+        final byte[] record = BlockCodec.toBytes(block);
+        // the last byte of the record is the last byte of the signature, which changes the transaction root
+        record[record.length - 1] ^= 1;
+        BlockCodec.decodeBlock(ByteBuffer.wrap(record));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfRangeDifficultyIsNotDecoded() {
+        final Block block = new Block("00ab", new Transaction(5, ALICE, BOB, 1, 0, "30"));
+        block.seal(200, 0);
+        final byte[] record = BlockCodec.toBytes(block);
+        final ByteBuffer in = ByteBuffer.wrap(record, 2, record.length - 2);
+        BlockCodec.readVarLong(in); // the body length
+        // the difficulty follows the timestamp as the varint C8 01; C8 03 is 456
+        record[in.position() + Long.BYTES + 1] = 3;
+        BlockCodec.decodeBlock(ByteBuffer.wrap(record));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfRangeDifficultyIsNotSealed() {
+        new Block("00ab", new Transaction(5, ALICE, BOB, 1, 0, "30")).seal(-4, 0);
+    }
+
+    private static Blockable roundTrip(Blockable entry) {
+        final ByteBuffer in = ByteBuffer.wrap(BlockCodec.toBytes(entry));
+        final Blockable decoded = BlockCodec.decodeEntry(in);
+        assertFalse("trailing bytes", in.hasRemaining());
+        return decoded;
+    }
+
+}
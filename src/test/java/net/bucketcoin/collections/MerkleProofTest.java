@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.collections;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MerkleProofTest {
+
+	private static final int[] SIZES = {1, 2, 3, 4, 5, 7, 8, 13, 64, 100, MerkleTree.PARALLEL_THRESHOLD * 2 + 1};
+
+	@Test
+	public void everyLeafVerifies() {
+		for(int size : SIZES) {
+			final List<byte[]> leaves = leaves(size);
+			final MerkleTree tree = MerkleTree.of(leaves);
+			final byte[] root = tree.getRoot();
+			for(int i = 0; i < size; i++) {
+				assertTrue(size + " leaves, leaf " + i, tree.proof(i).verify(leaves.get(i), root));
+			}
+		}
+	}
+
+	@Test
+	public void rootMatchesSequentialHashing() {
+		for(int size : SIZES) {
+			final List<byte[]> leaves = leaves(size);
+			assertArrayEquals(size + " leaves", referenceRoot(leaves), MerkleTree.root(leaves));
+			assertArrayEquals(MerkleTree.root(leaves), MerkleTree.of(strings(size), s -> s.getBytes(StandardCharsets.UTF_8)).getRoot());
+		}
+	}
+
+	@Test
+	public void emptyTreeHasZeroRoot() {
+		assertArrayEquals(new byte[MerkleTree.HASH_LENGTH], MerkleTree.root(List.of()));
+		assertEquals(0, MerkleTree.of(List.of()).getLeafCount());
+	}
+
+	@Test
+	public void proofHasOneSiblingPerLevel() {
+		assertEquals(Integer.BYTES * 2, MerkleTree.of(leaves(1)).proof(0).toBytes().length);
+		assertEquals(Integer.BYTES * 2 + 3 * MerkleTree.HASH_LENGTH, MerkleTree.of(leaves(8)).proof(5).toBytes().length);
+		// the last leaf of 5 has no sibling on the first two levels
+		assertEquals(Integer.BYTES * 2 + MerkleTree.HASH_LENGTH, MerkleTree.of(leaves(5)).proof(4).toBytes().length);
+	}
+
+	@Test
+	public void wrongLeafOrRootFails() {
+		final List<byte[]> leaves = leaves(13);
+		final MerkleTree tree = MerkleTree.of(leaves);
+		final MerkleProof proof = tree.proof(6);
+		assertFalse(proof.verify(leaves.get(7), tree.getRoot()));
+		assertFalse(proof.verify("other".getBytes(StandardCharsets.UTF_8), tree.getRoot()));
+		assertFalse(proof.verify(leaves.get(6), MerkleTree.root(leaves(12))));
+	}
+
+	@Test
+	public void tamperedProofFails() {
+		final List<byte[]> leaves = leaves(13);
+		final MerkleTree tree = MerkleTree.of(leaves);
+		final byte[] bytes = tree.proof(6).toBytes();
+
+		final byte[] flipped = bytes.clone();
+		flipped[flipped.length - 1] ^= 1;
+		assertFalse(MerkleProof.fromBytes(flipped).verify(leaves.get(6), tree.getRoot()));
+
+		final byte[] truncated = Arrays.copyOf(bytes, bytes.length - MerkleTree.HASH_LENGTH);
+		assertFalse(MerkleProof.fromBytes(truncated).verify(leaves.get(6), tree.getRoot()));
+
+		final byte[] extended = Arrays.copyOf(bytes, bytes.length + MerkleTree.HASH_LENGTH);
+		assertFalse(MerkleProof.fromBytes(extended).verify(leaves.get(6), tree.getRoot()));
+
+		final byte[] moved = bytes.clone();
+		moved[3] = 7; // index 7 with the siblings of index 6
+		assertFalse(MerkleProof.fromBytes(moved).verify(leaves.get(6), tree.getRoot()));
+	}
+
+	@Test
+	public void encodingRoundTrips() {
+		final List<byte[]> leaves = leaves(100);
+		final MerkleTree tree = MerkleTree.of(leaves);
+		for(int i = 0; i < leaves.size(); i += 9) {
+			final MerkleProof proof = tree.proof(i);
+			final MerkleProof decoded = MerkleProof.fromBytes(proof.toBytes());
+			assertEquals(proof, decoded);
+			assertEquals(proof.hashCode(), decoded.hashCode());
+			assertEquals(i, decoded.getIndex());
+			assertEquals(100, decoded.getLeafCount());
+			assertTrue(decoded.verify(leaves.get(i), tree.getRoot()));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shortEncodingIsRejected() {
+		MerkleProof.fromBytes(new byte[Integer.BYTES * 2 - 1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void partialSiblingIsRejected() {
+		MerkleProof.fromBytes(new byte[Integer.BYTES * 2 + 1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void indexOutsideLeafCountIsRejected() {
+		MerkleProof.fromBytes(new byte[Integer.BYTES * 2]); // leaf 0 of 0
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void negativeIndexHasNoProof() {
+		MerkleTree.of(leaves(3)).proof(-1);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void indexPastTheLastLeafHasNoProof() {
+		MerkleTree.of(leaves(3)).proof(3);
+	}
+
+	private static List<String> strings(int size) {
+		final List<String> strings = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) strings.add("leaf " + i);
+		return strings;
+	}
+
+	private static List<byte[]> leaves(int size) {
+		final List<byte[]> leaves = new ArrayList<>(size);
+		for(String s : strings(size)) leaves.add(s.getBytes(StandardCharsets.UTF_8));
+		return leaves;
+	}
+
+	/**
+	 * Hashes the tree level by level on one thread, carrying an odd node up unpaired.
+	 */
+	private static byte[] referenceRoot(List<byte[]> leaves) {
+		final MessageDigest digest = MerkleTree.newDigest();
+		List<byte[]> level = new ArrayList<>();
+		for(byte[] leaf : leaves) level.add(MerkleTree.hashLeaf(digest, leaf));
+		while(level.size() > 1) {
+			final List<byte[]> next = new ArrayList<>();
+			for(int i = 0; i < level.size(); i += 2) {
+				next.add(i + 1 < level.size() ? MerkleTree.hashNode(digest, level.get(i), level.get(i + 1)) : level.get(i));
+			}
+			level = next;
+		}
+		return level.get(0);
+	}
+
+}
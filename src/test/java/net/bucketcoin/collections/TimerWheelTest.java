@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+	/**
+	 * The number of ticks the wheels span together.
+	 */
+	private static final long HORIZON = 1L << 24;
+
+	@Test
+	public void expiresOnTheTickOfItsDeadline() {
+		final TimerWheel<String> wheel = new TimerWheel<>(10, 0);
+		wheel.schedule("a", 25);
+		final List<String> expired = new ArrayList<>();
+		assertEquals(0, wheel.advance(29, expired::add));
+		assertEquals(1, wheel.advance(30, expired::add));
+		assertEquals(List.of("a"), expired);
+		assertEquals(0, wheel.getSize());
+	}
+
+	@Test
+	public void pastDeadlineExpiresOnTheNextTick() {
+		final TimerWheel<String> wheel = new TimerWheel<>(1, 1000);
+		final TimerWheel.Timeout<String> timeout = wheel.schedule("late", 10);
+		final List<String> expired = new ArrayList<>();
+		wheel.advance(1000, expired::add);
+		assertTrue(expired.isEmpty());
+		assertTrue(timeout.isPending());
+		wheel.advance(1001, expired::add);
+		assertEquals(List.of("late"), expired);
+		assertFalse(timeout.isPending());
+	}
+
+	@Test
+	public void cascadesFromEveryLevel() {
+		// deadlines on both sides of each wheel boundary, and beyond the last wheel
+		final long[] deadlines = {1, 63, 64, 65, 4095, 4096, 4097, 262_143, 262_144, 262_145, HORIZON - 1, HORIZON, HORIZON + 100, 3 * HORIZON + 7};
+		for(long start : new long[] {0, 37, 4090, 262_100}) {
+			final TimerWheel<Long> wheel = new TimerWheel<>(1, start);
+			for(long d : deadlines) wheel.schedule(start + d, start + d);
+			assertExpiresOnTime(wheel, start, start + 4 * HORIZON);
+		}
+	}
+
+	@Test
+	public void randomDeadlinesExpireOnTime() {
+		final Random random = new Random(17);
+		final TimerWheel<Long> wheel = new TimerWheel<>(1, 0);
+		for(int i = 0; i < 10_000; i++) {
+			final long d = 1 + (random.nextBoolean() ? random.nextInt(5000) : random.nextInt(1 << 20));
+			wheel.schedule(d, d);
+		}
+		assertExpiresOnTime(wheel, 0, 1 << 20);
+	}
+
+	@Test
+	public void largeAdvanceExpiresEverythingDue() {
+		final TimerWheel<Long> wheel = new TimerWheel<>(1, 0);
+		for(long d = 1; d < 300_000; d += 997) wheel.schedule(d, d);
+		wheel.schedule(400_000L, 400_000);
+		final List<Long> expired = new ArrayList<>();
+		wheel.advance(300_000, expired::add);
+		assertEquals(301, expired.size());
+		for(int i = 1; i < expired.size(); i++) assertTrue(expired.get(i - 1) < expired.get(i));
+		assertEquals(1, wheel.getSize());
+		wheel.advance(399_999, expired::add);
+		assertEquals(1, wheel.getSize());
+		wheel.advance(400_000, expired::add);
+		assertEquals(0, wheel.getSize());
+	}
+
+	@Test
+	public void cancelledTimersDoNotExpire() {
+		final TimerWheel<String> wheel = new TimerWheel<>(1, 0);
+		final TimerWheel.Timeout<String> near = wheel.schedule("near", 5);
+		final TimerWheel.Timeout<String> far = wheel.schedule("far", 100_000);
+		final TimerWheel.Timeout<String> kept = wheel.schedule("kept", 100_000);
+		assertEquals(3, wheel.getSize());
+
+		assertTrue(wheel.cancel(near));
+		assertTrue(wheel.cancel(far));
+		assertFalse(wheel.cancel(far));
+		assertFalse(near.isPending());
+		assertEquals(1, wheel.getSize());
+
+		final List<String> expired = new ArrayList<>();
+		wheel.advance(200_000, expired::add);
+		assertEquals(List.of("kept"), expired);
+		assertFalse(wheel.cancel(kept));
+		assertEquals(0, wheel.getSize());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tickMustBePositive() {
+		new TimerWheel<>(0, 0);
+	}
+
+	/**
+	 * Advances the wheel one tick at a time, checking that every timer, whose item is its deadline, expires on it.
+	 */
+	private static void assertExpiresOnTime(TimerWheel<Long> wheel, long start, long end) {
+		final int scheduled = wheel.getSize();
+		int expired = 0;
+		for(long t = start + 1; t <= end && wheel.getSize() > 0; t++) {
+			final long now = t;
+			expired += wheel.advance(t, deadline -> assertEquals("expiry of " + deadline, (long) deadline, now));
+		}
+		assertEquals(0, wheel.getSize());
+		assertEquals(scheduled, expired);
+	}
+
+}
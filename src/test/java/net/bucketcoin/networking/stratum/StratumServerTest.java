@@ -0,0 +1,266 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.networking.stratum;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.BlockHeader;
+import net.bucketcoin.crypto.Bucketcoin;
+import net.bucketcoin.node.BlockBuilder;
+import net.bucketcoin.node.Mempool;
+import net.bucketcoin.node.Verifier;
+import net.bucketcoin.p2p.Node;
+import net.bucketcoin.pow.DifficultyAlgorithm;
+import net.bucketcoin.pow.PowHasher;
+import net.bucketcoin.runtime.Initializer;
+import net.bucketcoin.wallet.Wallet;
+import org.apache.commons.codec.binary.Hex;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StratumServerTest {
+
+	private static final int TIMEOUT_MILLIS = 10_000;
+
+	private final Verifier verifier = Verifier.getInstance();
+	private final MapLedger ledger = new MapLedger();
+	private Verifier.Ledger previousLedger;
+	private StratumServer server;
+
+	@BeforeClass
+	public static void setUpNode() throws Exception {
+		if(!Initializer.isCoreLibsInitialized()) Initializer.getInstance().initializeCore();
+		// jobs pay their reward to the node's wallet
+		if(!Node.isInitialized()) Node.getInstance().init(new Wallet(), 0);
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		previousLedger = verifier.getLedger();
+		verifier.setLedger(ledger);
+		Mempool.getInstance().setNonceSource(ledger::nonceOf);
+		server = new StratumServer(0, new BlockBuilder());
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+		verifier.setLedger(previousLedger);
+	}
+
+	@Test
+	public void subscribersGetTheirOwnExtranonceAndTheCurrentJob() throws IOException {
+		try(var first = new Connection(server.getPort()); var second = new Connection(server.getPort())) {
+			final JsonArray subscription = first.call("mining.subscribe", new JsonArray()).getAsJsonArray("result");
+			assertEquals(3, subscription.size());
+			assertEquals(8, subscription.get(1).getAsString().length());
+			assertEquals(StratumServer.EXTRANONCE2_SIZE, subscription.get(2).getAsInt());
+			final String other = second.call("mining.subscribe", new JsonArray()).getAsJsonArray("result").get(1).getAsString();
+			assertNotEquals(subscription.get(1).getAsString(), other);
+
+			assertEquals(server.getShareDifficulty(), first.notification("mining.set_difficulty").get(0).getAsLong());
+			final JsonArray job = first.notification("mining.notify");
+			assertEquals(BlockHeader.LENGTH * 2, job.get(1).getAsString().length());
+			assertEquals(DifficultyAlgorithm.getDifficulty(), job.get(2).getAsLong());
+			assertTrue("every job replaces the previous ones", job.get(3).getAsBoolean());
+			assertTrue(second.notification("mining.notify").get(3).getAsBoolean());
+
+			final JsonArray credentials = new JsonArray();
+			credentials.add("worker");
+			credentials.add("");
+			assertTrue(first.call("mining.authorize", credentials).get("result").getAsBoolean());
+		}
+	}
+
+	@Test
+	public void sharesAreCheckedAndTheBlockIsFound() throws Exception {
+		try(var miner = new Connection(server.getPort())) {
+			final long extranonce1 = Long.parseLong(miner.call("mining.subscribe", new JsonArray()).getAsJsonArray("result").get(1).getAsString(), 16);
+			final JsonArray job = miner.notification("mining.notify");
+			final String jobId = job.get(0).getAsString();
+			final long difficulty = job.get(2).getAsLong();
+			final var hasher = new PowHasher(Hex.decodeHex(job.get(1).getAsString().toCharArray()), BlockHeader.NONCE_OFFSET);
+			long low = -1, solution = -1;
+			for(long nonce = extranonce1 << 32; low < 0 || solution < 0; nonce++) {
+				if(DifficultyAlgorithm.meetsDifficulty(hasher.hash(nonce), difficulty)) {
+					if(solution < 0) solution = nonce;
+				} else if(low < 0) {
+					low = nonce;
+				}
+			}
+
+			assertRejected(23, miner.call("mining.submit", submit(jobId, low)));
+			assertRejected(22, miner.call("mining.submit", submit(jobId, low)));
+			assertRejected(20, miner.call("mining.submit", submit(jobId, (extranonce1 + 1) << 32)));
+			assertRejected(21, miner.call("mining.submit", submit("unknown", solution)));
+			assertEquals(4, server.getRejectedShares().get());
+
+			final Block tip = Bucketcoin.getInstance().getLastBlock();
+			assertTrue(miner.call("mining.submit", submit(jobId, solution)).get("result").getAsBoolean());
+			final JsonArray next = miner.notification("mining.notify");
+			assertNotEquals("a found block starts a new job", jobId, next.get(0).getAsString());
+			assertEquals(1, server.getAcceptedShares().get());
+			assertEquals(1, server.getBlocksFound().get());
+
+			final Block found = Bucketcoin.getInstance().getLastBlock();
+			assertEquals(tip.getHash(), found.getPrevHash());
+			assertEquals(solution, found.getNonce());
+			assertTrue(ledger.balanceOf(Node.getNodeWallet().getAccount()) > 0);
+
+			assertRejected(21, miner.call("mining.submit", submit(jobId, solution + 1)));
+		}
+	}
+
+	@Test
+	public void referenceClientGetsItsSharesAccepted() throws Exception {
+		try(var client = new StratumClient("localhost", server.getPort(), "worker", 1)) {
+			client.start();
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+			while(client.getAcceptedShares().get() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+			assertTrue(client.getAcceptedShares().get() > 0);
+		}
+		assertTrue(server.getAcceptedShares().get() > 0);
+	}
+
+	private static JsonArray submit(String jobId, long nonce) {
+		final JsonArray params = new JsonArray();
+		params.add("worker");
+		params.add(jobId);
+		params.add(String.format("%016x", nonce));
+		return params;
+	}
+
+	private static void assertRejected(int code, JsonObject response) {
+		assertFalse(response.toString(), response.get("result").getAsBoolean());
+		assertEquals(response.toString(), code, response.getAsJsonArray("error").get(0).getAsInt());
+	}
+
+	/**
+	 * A bare connection that speaks the protocol line by line, keeping the notifications that arrive between responses.
+	 */
+	private static final class Connection implements Closeable {
+
+		private final Socket socket;
+		private final BufferedReader in;
+		private final Writer out;
+		private final Deque<JsonObject> notifications = new ArrayDeque<>();
+		private int ids = 0;
+
+		private Connection(int port) throws IOException {
+			socket = new Socket("localhost", port);
+			socket.setSoTimeout(TIMEOUT_MILLIS);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		}
+
+		private JsonObject call(String method, JsonArray params) throws IOException {
+			final int id = ids++;
+			final var request = new JsonObject();
+			request.addProperty("id", id);
+			request.addProperty("method", method);
+			request.add("params", params);
+			out.write(request + "\n");
+			out.flush();
+			while(true) {
+				final JsonObject message = read();
+				final JsonElement responseId = message.get("id");
+				if(responseId != null && !responseId.isJsonNull() && responseId.getAsInt() == id) return message;
+				notifications.add(message);
+			}
+		}
+
+		private JsonArray notification(String method) throws IOException {
+			for(Iterator<JsonObject> i = notifications.iterator(); i.hasNext(); ) {
+				final JsonObject message = i.next();
+				if(method.equals(methodOf(message))) {
+					i.remove();
+					return message.getAsJsonArray("params");
+				}
+			}
+			while(true) {
+				final JsonObject message = read();
+				if(method.equals(methodOf(message))) return message.getAsJsonArray("params");
+				notifications.add(message);
+			}
+		}
+
+		private JsonObject read() throws IOException {
+			final String line = in.readLine();
+			if(line == null) throw new IOException("Connection closed by the server");
+			return JsonParser.parseString(line).getAsJsonObject();
+		}
+
+		private static String methodOf(JsonObject message) {
+			return message.has("method") && !message.get("method").isJsonNull() ? message.get("method").getAsString() : null;
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+
+	}
+
+	/**
+	 * A ledger in memory.
+	 */
+	private static final class MapLedger implements Verifier.Ledger {
+
+		private final Map<String, long[]> accounts = new HashMap<>();
+
+		@Override
+		public synchronized long balanceOf(@NotNull String account) {
+			return accounts.getOrDefault(account, new long[2])[0];
+		}
+
+		@Override
+		public synchronized long nonceOf(@NotNull String account) {
+			return accounts.getOrDefault(account, new long[2])[1];
+		}
+
+		@Override
+		public synchronized void commit(@NotNull String account, long balance, long nonce) {
+			accounts.put(account, new long[] {balance, nonce});
+		}
+
+	}
+
+}
@@ -0,0 +1,437 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.block.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MempoolTest {
+
+    private static final AtomicInteger names = new AtomicInteger();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Mempool pool = Mempool.getInstance();
+    private final Map<String, Long> stateNonces = new ConcurrentHashMap<>();
+    private final Queue<String> senders = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        pool.closeJournal();
+        clear();
+        pool.setLimits(Mempool.DEFAULT_MAX_TRANSACTIONS, Mempool.DEFAULT_MAX_BYTES);
+        pool.setMinFeeBumpBps(Mempool.DEFAULT_MIN_FEE_BUMP_BPS);
+        pool.setTimeToLive(Long.MIN_VALUE, Mempool.DEFAULT_TIME_TO_LIVE);
+        pool.setNonceSource(s -> stateNonces.getOrDefault(s, 0L));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.closeJournal();
+        clear();
+        pool.setTimeToLive(Long.MIN_VALUE, Mempool.DEFAULT_TIME_TO_LIVE);
+    }
+
+    @Test
+    public void laterNoncesAreParkedUntilTheGapFills() {
+        final String alice = sender();
+        final Transaction t0 = tx(alice, 0, 10), t1 = tx(alice, 1, 10), t2 = tx(alice, 2, 10);
+        assertTrue(pool.addTransactionToPool(t0));
+        assertTrue(pool.addTransactionToPool(t2));
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getParkedCount());
+        assertEquals(1, pool.nextNonce(alice));
+
+        assertEquals(List.of(0L), nonces(pool.takeEntriesFromPool(Long.MAX_VALUE)));
+        assertEquals(1, pool.getParkedCount());
+
+        assertTrue(pool.addTransactionToPool(t1));
+        assertEquals("the next nonce is executable, the one after it waits for it to be taken", 1, pool.getParkedCount());
+        assertEquals(List.of(1L, 2L), nonces(pool.takeEntriesFromPool(Long.MAX_VALUE)));
+        assertEquals(0, pool.getParkedCount());
+    }
+
+    @Test
+    public void usedNoncesAreRejected() {
+        final String alice = sender();
+        stateNonces.put(alice, 5L);
+        final long rejected = pool.getRejectedCount();
+        assertFalse(pool.addTransactionToPool(tx(alice, 4, 10)));
+        assertEquals(rejected + 1, pool.getRejectedCount());
+        assertTrue(pool.addTransactionToPool(tx(alice, 5, 10)));
+        assertEquals(6, pool.nextNonce(alice));
+    }
+
+    @Test
+    public void tooManyParkedTransactionsAreRejected() {
+        final String alice = sender();
+        for(int nonce = 1; nonce <= Mempool.MAX_PARKED_PER_SENDER; nonce++) assertTrue(pool.addTransactionToPool(tx(alice, nonce, 10)));
+        assertFalse(pool.addTransactionToPool(tx(alice, Mempool.MAX_PARKED_PER_SENDER + 1, 10)));
+        assertEquals(Mempool.MAX_PARKED_PER_SENDER, pool.getParkedCount());
+    }
+
+    @Test
+    public void replacementHasToPayTheMinimumBump() {
+        final String alice = sender();
+        final Transaction pooled = tx(alice, 0, 100);
+        final Transaction low = tx(alice, 0, 109);
+        final Transaction enough = tx(alice, 0, 110);
+        final long replaced = pool.getReplacedCount();
+        assertTrue(pool.addTransactionToPool(pooled));
+        assertFalse(pool.addTransactionToPool(low));
+        assertTrue(pool.addTransactionToPool(enough));
+        assertEquals(replaced + 1, pool.getReplacedCount());
+        assertEquals(1, pool.size());
+        assertFalse(pool.contains(MempoolEntry.hashOf(pooled)));
+        assertTrue(pool.contains(MempoolEntry.hashOf(enough)));
+
+        pool.setMinFeeBumpBps(0);
+        assertFalse("an equal fee never replaces", pool.addTransactionToPool(tx(alice, 0, 110)));
+        assertTrue(pool.addTransactionToPool(tx(alice, 0, 111)));
+    }
+
+    @Test
+    public void replacementOfAParkedTransactionStaysParked() {
+        final String alice = sender();
+        assertTrue(pool.addTransactionToPool(tx(alice, 0, 10)));
+        assertTrue(pool.addTransactionToPool(tx(alice, 1, 10)));
+        assertTrue(pool.addTransactionToPool(tx(alice, 1, 20)));
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getParkedCount());
+        assertEquals(10, pool.getHighestGasPriceEntry().getGasFee());
+    }
+
+    @Test
+    public void fullPoolEvictsTheLowestFeeTransaction() {
+        pool.setLimits(2, Mempool.DEFAULT_MAX_BYTES);
+        final Transaction low = tx(sender(), 0, 10);
+        final Transaction mid = tx(sender(), 0, 20);
+        final long evicted = pool.getEvictedCount();
+        assertTrue(pool.addTransactionToPool(low));
+        assertTrue(pool.addTransactionToPool(mid));
+        assertTrue(pool.addTransactionToPool(tx(sender(), 0, 30)));
+        assertFalse(pool.contains(MempoolEntry.hashOf(low)));
+        assertTrue(pool.contains(MempoolEntry.hashOf(mid)));
+        assertEquals(evicted + 1, pool.getEvictedCount());
+
+        assertFalse("a lower fee cannot evict", pool.addTransactionToPool(tx(sender(), 0, 5)));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void evictionTakesTheSendersQueueWithIt() {
+        pool.setLimits(4, Mempool.DEFAULT_MAX_BYTES);
+        final String alice = sender();
+        assertTrue(pool.addTransactionToPool(tx(alice, 0, 10)));
+        assertTrue(pool.addTransactionToPool(tx(alice, 1, 50)));
+        final Transaction bob = tx(sender(), 0, 20);
+        assertTrue(pool.addTransactionToPool(bob));
+        assertTrue(pool.addTransactionToPool(tx(sender(), 0, 25)));
+        assertTrue(pool.addTransactionToPool(tx(sender(), 0, 30)));
+        assertEquals(3, pool.size());
+        assertEquals(0, pool.getParkedCount());
+        assertTrue(pool.contains(MempoolEntry.hashOf(bob)));
+    }
+
+    @Test
+    public void transactionsExpireAfterTheirTimeToLive() throws InterruptedException {
+        pool.setTimeToLive(Long.MIN_VALUE, Duration.ofMillis(1));
+        final long expired = pool.getExpiredCount();
+        final String alice = sender();
+        assertTrue(pool.addTransactionToPool(tx(alice, 0, 10)));
+        assertTrue(pool.addTransactionToPool(tx(alice, 1, 10)));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(pool.size() > 0 && System.nanoTime() < deadline) Thread.sleep(50);
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.getParkedCount());
+        assertEquals(expired + 2, pool.getExpiredCount());
+    }
+
+    @Test
+    public void takenTransactionsComeBackAndParkTheirSuccessors() {
+        final String alice = sender();
+        for(int nonce = 0; nonce < 3; nonce++) pool.addTransactionToPool(tx(alice, nonce, 10));
+        final List<MempoolEntry> taken = pool.takeEntriesFromPool(Long.MAX_VALUE);
+        assertEquals(List.of(0L, 1L, 2L), nonces(taken));
+        assertEquals(0, pool.size());
+
+        assertEquals(3, pool.returnEntriesToPool(taken, null));
+        assertEquals(3, pool.size());
+        assertEquals(2, pool.getParkedCount());
+        assertEquals(List.of(0L, 1L, 2L), nonces(pool.takeEntriesFromPool(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void takingStopsAtTheByteBudget() {
+        final String alice = sender();
+        for(int nonce = 0; nonce < 3; nonce++) pool.addTransactionToPool(tx(alice, nonce, 10));
+        final long size = pool.getHighestGasPriceEntry().getSize();
+        assertEquals(List.of(0L, 1L), nonces(pool.takeEntriesFromPool(2 * size)));
+        assertEquals(1, pool.size());
+        assertEquals(0, pool.getParkedCount());
+    }
+
+    @Test
+    public void rejectedBlockParksTheFailingSendersLaterNonces() {
+        final String alice = sender();
+        final Transaction t0 = tx(alice, 0, 10), t1 = tx(alice, 1, 10), t2 = tx(alice, 2, 10);
+        for(Transaction t : List.of(t0, t1, t2)) pool.addTransactionToPool(t);
+        final List<MempoolEntry> taken = pool.takeEntriesFromPool(Long.MAX_VALUE);
+
+        assertEquals(2, pool.returnEntriesToPool(taken, t1));
+        assertFalse(pool.contains(MempoolEntry.hashOf(t1)));
+        assertEquals(1, pool.getParkedCount());
+        assertEquals(List.of(0L), nonces(pool.takeEntriesFromPool(Long.MAX_VALUE)));
+
+        assertTrue(pool.addTransactionToPool(tx(alice, 1, 20)));
+        assertEquals(List.of(1L, 2L), nonces(pool.takeEntriesFromPool(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void minedBlockUsesUpTheSendersNonces() {
+        final String alice = sender();
+        final List<Transaction> transactions = new ArrayList<>();
+        for(int nonce = 0; nonce < 4; nonce++) {
+            transactions.add(tx(alice, nonce, 10));
+            pool.addTransactionToPool(transactions.get(nonce));
+        }
+        // a conflicting transaction with nonce 1 was mined instead of the pooled one
+        assertEquals(2, pool.removeBlockFromPool(new Block("", transactions.get(0), tx(alice, 1, 99))));
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getParkedCount());
+        assertEquals(4, pool.nextNonce(alice));
+        assertEquals(2, pool.getHighestGasPriceEntry().getNonce());
+    }
+
+    @Test
+    public void concurrentSendersAreQueuedInNonceOrder() throws Exception {
+        final int threads = 8, sendersPerThread = 100, nonces = 5;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        try {
+            for(int i = 0; i < threads; i++) {
+                final long seed = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    final Random random = new Random(seed);
+                    for(int s = 0; s < sendersPerThread; s++) {
+                        final String sender = sender();
+                        final List<Integer> order = new ArrayList<>();
+                        for(int nonce = 0; nonce < nonces; nonce++) order.add(nonce);
+                        Collections.shuffle(order, random);
+                        for(int nonce : order) assertTrue(pool.addTransactionToPool(tx(sender, nonce, 1 + random.nextInt(1000))));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for(Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * sendersPerThread * nonces, pool.size());
+        assertEquals(threads * sendersPerThread * (nonces - 1), pool.getParkedCount());
+        final Map<String, Long> next = new HashMap<>();
+        for(MempoolEntry e : pool.takeEntriesFromPool(Long.MAX_VALUE)) {
+            assertEquals(next.getOrDefault(e.getSender(), 0L).longValue(), e.getNonce());
+            next.put(e.getSender(), e.getNonce() + 1);
+        }
+        assertEquals(threads * sendersPerThread, next.size());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void concurrentTakesNeverShareAnEntry() throws Exception {
+        final int entries = 2_000, threads = 4;
+        for(int i = 0; i < entries; i++) pool.addTransactionToPool(tx(sender(), 0, 1 + i % 100));
+        pool.setRandomSeed(42);
+        final Set<String> taken = ConcurrentHashMap.newKeySet();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        try {
+            for(int i = 0; i < threads; i++) {
+                final boolean random = i % 2 == 0;
+                futures.add(executor.submit(() -> {
+                    while(true) {
+                        final List<MempoolEntry> batch;
+                        if(random) {
+                            try {
+                                batch = List.of(pool.takeRandomEntryFromPool());
+                            } catch(IllegalArgumentException empty) {
+                                return null;
+                            }
+                        } else {
+                            batch = pool.takeEntriesFromPool(1_000);
+                            if(batch.isEmpty()) return null;
+                        }
+                        for(MempoolEntry e : batch) {
+                            if(!taken.add(e.getHash())) duplicates.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for(Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, duplicates.get());
+        assertEquals(entries, taken.size());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void journalRestoresPooledAndTakenTransactions() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("mempool.journal");
+        assertEquals(0, pool.openJournal(file));
+        final Transaction kept = tx(sender(), 0, 10);
+        final Transaction removed = tx(sender(), 0, 20);
+        final Transaction taken = tx(sender(), 0, 30);
+        final Transaction mined = tx(sender(), 0, 40);
+        for(Transaction t : List.of(kept, removed, taken, mined)) assertTrue(pool.addTransactionToPool(t));
+        assertTrue(pool.removeEntryFromPool(pool.getEntry(MempoolEntry.hashOf(removed))));
+        final long budget = pool.getEntry(MempoolEntry.hashOf(taken)).getSize() + pool.getEntry(MempoolEntry.hashOf(mined)).getSize();
+        assertEquals(2, pool.takeEntriesFromPool(budget).size());
+        pool.removeBlockFromPool(new Block("", mined));
+        pool.closeJournal();
+        clear();
+
+        assertEquals(2, pool.openJournal(file));
+        assertTrue(pool.contains(MempoolEntry.hashOf(kept)));
+        assertTrue(pool.contains(MempoolEntry.hashOf(taken)));
+        assertFalse(pool.contains(MempoolEntry.hashOf(removed)));
+        assertFalse(pool.contains(MempoolEntry.hashOf(mined)));
+        pool.closeJournal();
+        // reopening rewrote the journal with the restored transactions only
+        assertEquals(2, MempoolJournal.replay(file).records());
+    }
+
+    @Test
+    public void replayDropsAPartialRecord() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("partial.journal");
+        MempoolJournal.replay(file);
+        final var journal = new MempoolJournal(file, 0, () -> 0, () -> {});
+        final var first = new MempoolEntry(tx(sender(), 0, 10));
+        final var second = new MempoolEntry(tx(sender(), 0, 20));
+        journal.added(first);
+        journal.added(second);
+        journal.removed(first);
+        journal.close();
+        final long length = Files.size(file);
+        Files.write(file, new byte[] {1, 0x12, 0x34}, StandardOpenOption.APPEND);
+
+        final MempoolJournal.Replay replay = MempoolJournal.replay(file);
+        assertEquals(1, replay.entries().size());
+        assertEquals(second.getHash(), MempoolEntry.hashOf(replay.entries().get(0)));
+        assertEquals(3, replay.records());
+        assertEquals(length, Files.size(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void replayRejectsAnotherFile() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("other");
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+        MempoolJournal.replay(file);
+    }
+
+    @Test
+    public void journalIsCompactedOnceItOutgrowsThePool() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("compacted.journal");
+        MempoolJournal.replay(file);
+        final var live = new MempoolEntry(tx(sender(), 0, 10));
+        final var compacted = new CountDownLatch(1);
+        final MempoolJournal[] journal = new MempoolJournal[1];
+        // the journal already holds as many records as it may before it is compacted, and the pool holds one entry
+        journal[0] = new MempoolJournal(file, MempoolJournal.COMPACTION_THRESHOLD, () -> 1, () -> {
+            try {
+                journal[0].rewrite(List.of(live));
+            } catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+            compacted.countDown();
+        });
+        journal[0].added(new MempoolEntry(tx(sender(), 0, 20)));
+        assertTrue(compacted.await(10, TimeUnit.SECONDS));
+        journal[0].close();
+
+        final MempoolJournal.Replay replay = MempoolJournal.replay(file);
+        assertEquals(1, replay.records());
+        assertEquals(live.getHash(), MempoolEntry.hashOf(replay.entries().get(0)));
+    }
+
+    private void clear() {
+        List<MempoolEntry> executable;
+        while(!(executable = pool.snapshot()).isEmpty()) {
+            for(MempoolEntry e : executable) pool.removeEntryFromPool(e);
+        }
+        // what is left is parked behind a gap, which only goes once its sender's nonces are used up
+        final ArrayList<Blockable> used = new ArrayList<>();
+        for(String sender : senders) used.add(tx(sender, Integer.MAX_VALUE, 0));
+        senders.clear();
+        if(!used.isEmpty()) pool.removeBlockFromPool(new Block("", used));
+    }
+
+    private String sender() {
+        final String sender = "sender-" + names.incrementAndGet();
+        senders.add(sender);
+        return sender;
+    }
+
+    private static Transaction tx(String sender, long nonce, long fee) {
+        return new Transaction(1, sender, "recipient", fee, nonce);
+    }
+
+    private static List<Long> nonces(List<MempoolEntry> entries) {
+        final List<Long> nonces = new ArrayList<>();
+        for(MempoolEntry e : entries) nonces.add(e.getNonce());
+        return nonces;
+    }
+
+}
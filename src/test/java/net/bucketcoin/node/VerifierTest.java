@@ -0,0 +1,297 @@
+/*
+ *    Copyright 2021 The Bucketcoin Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.bucketcoin.node;
+
+import net.bucketcoin.block.Block;
+import net.bucketcoin.block.Blockable;
+import net.bucketcoin.block.Trade;
+import net.bucketcoin.block.Transaction;
+import net.bucketcoin.crypto.Bucketcoin;
+import net.bucketcoin.pow.DifficultyAlgorithm;
+import net.bucketcoin.runtime.Initializer;
+import net.bucketcoin.wallet.Wallet;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VerifierTest {
+
+    private static final long DIFFICULTY = 2;
+    private static final long FUNDS = 1_000_000;
+
+    private static Wallet alice;
+    private static Wallet bob;
+
+    private final Verifier verifier = Verifier.getInstance();
+    private final MapLedger ledger = new MapLedger();
+    private Verifier.Ledger previousLedger;
+    private Block parent;
+
+    @BeforeClass
+    public static void setUpWallets() throws Exception {
+        if(!Initializer.isCoreLibsInitialized()) Initializer.getInstance().initializeCore();
+        alice = new Wallet();
+        bob = new Wallet();
+    }
+
+    @Before
+    public void setUp() {
+        previousLedger = verifier.getLedger();
+        verifier.setLedger(ledger);
+        verifier.setMinDifficulty(() -> DIFFICULTY);
+        Mempool.getInstance().setNonceSource(ledger::nonceOf);
+        ledger.commit(alice.getAccount(), FUNDS, 0);
+        parent = mine(new Block("", new Transaction(0, "genesis", "genesis", 0)));
+    }
+
+    @After
+    public void tearDown() {
+        verifier.setLedger(previousLedger);
+        verifier.setMinDifficulty(DifficultyAlgorithm::getDifficulty);
+    }
+
+    @Test
+    public void validBlockCarriesItsStateChanges() throws Exception {
+        final Verifier.Result result = verify(transfer(alice, bob, 10, 1, 0), transfer(alice, bob, 20, 2, 1));
+        assertTrue(result.toString(), result.isValid());
+        assertEquals(FUNDS - 33, (long) result.balances().get(alice.getAccount()));
+        assertEquals(30, (long) result.balances().get(bob.getAccount()));
+        assertEquals(2, (long) result.nonces().get(alice.getAccount()));
+        assertEquals("verifying does not change the ledger", 0, ledger.nonceOf(alice.getAccount()));
+    }
+
+    @Test
+    public void rewardRecipientCollectsTheFees() throws Exception {
+        final var reward = new Transaction(Miner.REWARD, Miner.REWARD_SENDER, bob.getAccount(), 0);
+        final Verifier.Result result = verify(reward, transfer(alice, alice, 10, 5, 0));
+        assertTrue(result.toString(), result.isValid());
+        assertEquals(Miner.REWARD + 5, (long) result.balances().get(bob.getAccount()));
+        assertEquals(FUNDS - 5, (long) result.balances().get(alice.getAccount()));
+    }
+
+    @Test
+    public void emptyBlockIsMalformed() {
+        assertFailed(Verifier.Stage.STRUCTURE, "no entries", verifier.verify(mine(new Block(parent.getHash(), new ArrayList<>())), parent));
+    }
+
+    @Test
+    public void unsignedTransactionIsMalformed() {
+        assertFailed(Verifier.Stage.STRUCTURE, "unsigned transaction", verify(new Transaction(10, alice.getAccount(), bob.getAccount(), 1, 0)));
+    }
+
+    @Test
+    public void signedTransactionWithoutNonceIsMalformed() throws Exception {
+        final var t = new Transaction(10, alice.getAccount(), bob.getAccount(), 1).sign((PrivateKey) alice.getPrivateKey());
+        assertFailed(Verifier.Stage.STRUCTURE, "no nonce", verify(t));
+    }
+
+    @Test
+    public void duplicateNonceIsMalformed() throws Exception {
+        assertFailed(Verifier.Stage.STRUCTURE, "duplicate nonce", verify(transfer(alice, bob, 10, 1, 0), transfer(alice, bob, 11, 1, 0)));
+    }
+
+    @Test
+    public void rewardsAreLimited() throws Exception {
+        final var reward = new Transaction(Miner.REWARD, Miner.REWARD_SENDER, bob.getAccount(), 0);
+        assertFailed(Verifier.Stage.STRUCTURE, "more than one reward", verify(reward, reward));
+        final var large = new Transaction(Miner.REWARD + 1, Miner.REWARD_SENDER, bob.getAccount(), 0);
+        assertFailed(Verifier.Stage.STRUCTURE, "reward too large", verify(large));
+    }
+
+    @Test
+    public void tradesAreRejectedUntilSigned() throws Exception {
+        final var trade = new Trade(List.of(1L), List.of(), alice.getAccount(), bob.getAccount(), FUNDS);
+        final Verifier.Result result = verify(transfer(alice, bob, 10, 1, 0), trade);
+        assertFailed(Verifier.Stage.STRUCTURE, "unsigned trade", result);
+        assertSame(trade, result.entry());
+    }
+
+    @Test
+    public void blockMustExtendItsParent() throws Exception {
+        final Block block = mine(new Block(parent.getHash(), transfer(alice, bob, 10, 1, 0)));
+        final Block other = mine(new Block("", new Transaction(1, "genesis", "genesis", 0)));
+        assertFailed(Verifier.Stage.HEADER, "does not extend its parent", verifier.verify(block, other));
+    }
+
+    @Test
+    public void blockMustMeetTheDifficulty() throws Exception {
+        final Block easy = new Block(parent.getHash(), transfer(alice, bob, 10, 1, 0));
+        easy.seal(DIFFICULTY - 1, 0);
+        assertFailed(Verifier.Stage.HEADER, "difficulty too low", verifier.verify(easy, parent));
+
+        final Block unsolved = new Block(parent.getHash(), transfer(alice, bob, 10, 1, 0));
+        long nonce = 0;
+        do {
+            unsolved.seal(DIFFICULTY, nonce++);
+        } while(unsolved.getHash().startsWith("0"));
+        assertFailed(Verifier.Stage.HEADER, "proof of work not met", verifier.verify(unsolved, parent));
+    }
+
+    @Test
+    public void forgedSignatureIsRejected() throws Exception {
+        final var forged = new Transaction(10, alice.getAccount(), bob.getAccount(), 1, 0).sign((PrivateKey) bob.getPrivateKey());
+        final Verifier.Result result = verify(transfer(alice, bob, 1, 1, 1), forged);
+        assertFailed(Verifier.Stage.SIGNATURES, "invalid signature", result);
+        assertSame(forged, result.entry());
+    }
+
+    @Test
+    public void malformedSignatureIsRejected() {
+        final var t = new Transaction(10, alice.getAccount(), bob.getAccount(), 1, 0, "not hex");
+        assertFailed(Verifier.Stage.SIGNATURES, "malformed signature", verify(t));
+    }
+
+    @Test
+    public void signaturesAreCheckedBeforeTheState() throws Exception {
+        // the nonce is wrong too, but the state is only read for blocks whose every signature is valid
+        final var forged = new Transaction(10, alice.getAccount(), bob.getAccount(), 1, 5).sign((PrivateKey) bob.getPrivateKey());
+        assertFailed(Verifier.Stage.SIGNATURES, "invalid signature", verify(forged));
+    }
+
+    @Test
+    public void nonceMustBeTheNextOne() throws Exception {
+        assertFailed(Verifier.Stage.STATE, "expected nonce 0", verify(transfer(alice, bob, 10, 1, 1)));
+        assertFailed(Verifier.Stage.STATE, "expected nonce 1", verify(transfer(alice, bob, 10, 1, 0), transfer(alice, bob, 10, 1, 2)));
+    }
+
+    @Test
+    public void senderMustPayAmountAndFee() throws Exception {
+        assertFailed(Verifier.Stage.STATE, "insufficient balance", verify(transfer(alice, bob, FUNDS, 1, 0)));
+        assertFailed(Verifier.Stage.STATE, "insufficient balance", verify(transfer(bob, alice, 1, 0, 0)));
+    }
+
+    @Test
+    public void committedTransactionCannotBeReplayed() throws Exception {
+        final Transaction t = transfer(alice, bob, 10, 1, 0);
+        final Verifier.Result result = verify(t);
+        assertTrue(result.toString(), result.isValid());
+        verifier.commit(result);
+        assertEquals(1, ledger.nonceOf(alice.getAccount()));
+        assertEquals(FUNDS - 11, ledger.balanceOf(alice.getAccount()));
+
+        assertFailed(Verifier.Stage.STATE, "expected nonce 1", verify(t));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidResultCannotBeCommitted() {
+        verifier.commit(verify(new Transaction(10, alice.getAccount(), bob.getAccount(), 1, 0)));
+    }
+
+    @Test
+    public void acceptPushesAndCommitsOnce() throws Exception {
+        final Transaction t = transfer(alice, bob, 10, 1, 0);
+        final Block tip = Bucketcoin.getInstance().getLastBlock();
+        final Block block = mine(new Block(tip.getHash(), t));
+        final Block rival = mine(new Block(tip.getHash(), transfer(alice, bob, 20, 1, 0)));
+
+        assertTrue(verifier.accept(block).isValid());
+        assertSame(block, Bucketcoin.getInstance().getLastBlock());
+        assertEquals(FUNDS - 11, ledger.balanceOf(alice.getAccount()));
+        assertEquals(10, ledger.balanceOf(bob.getAccount()));
+
+        assertFailed(Verifier.Stage.HEADER, "does not extend its parent", verifier.accept(rival));
+        assertFailed(Verifier.Stage.HEADER, "does not extend its parent", verifier.accept(block));
+        assertFailed(Verifier.Stage.STATE, "expected nonce 1", verifier.accept(mine(new Block(block.getHash(), t))));
+        assertSame(block, Bucketcoin.getInstance().getLastBlock());
+        assertEquals(FUNDS - 11, ledger.balanceOf(alice.getAccount()));
+    }
+
+    @Test
+    public void failingLedgerLeavesChainAndStateAsTheyWere() throws Exception {
+        final Block tip = Bucketcoin.getInstance().getLastBlock();
+        final Block block = mine(new Block(tip.getHash(), transfer(alice, bob, 10, 1, 0)));
+        ledger.failOn = bob.getAccount();
+        try {
+            verifier.accept(block);
+            fail("The ledger failure was not thrown");
+        } catch(IllegalStateException expected) {
+            // thrown by the ledger
+        }
+        assertSame(tip, Bucketcoin.getInstance().getLastBlock());
+        assertEquals(FUNDS, ledger.balanceOf(alice.getAccount()));
+        assertEquals(0, ledger.nonceOf(alice.getAccount()));
+        assertEquals(0, ledger.balanceOf(bob.getAccount()));
+
+        ledger.failOn = null;
+        assertTrue(verifier.accept(block).isValid());
+        assertSame(block, Bucketcoin.getInstance().getLastBlock());
+    }
+
+    private Verifier.Result verify(Blockable... entries) {
+        return verifier.verify(mine(new Block(parent.getHash(), entries)), parent);
+    }
+
+    private static Transaction transfer(Wallet from, Wallet to, long amount, long fee, long nonce) throws Exception {
+        return new Transaction(amount, from.getAccount(), to.getAccount(), fee, nonce).sign((PrivateKey) from.getPrivateKey());
+    }
+
+    /**
+     * Seals the block with the first nonce that meets {@link #DIFFICULTY}.
+     */
+    private static Block mine(Block block) {
+        final String target = "0".repeat((int) DIFFICULTY);
+        for(long nonce = 0; ; nonce++) {
+            block.seal(DIFFICULTY, nonce);
+            if(block.getHash().startsWith(target)) return block;
+        }
+    }
+
+    private static void assertFailed(Verifier.Stage stage, String reason, Verifier.Result result) {
+        assertEquals(result.toString(), stage, result.failed());
+        assertEquals(reason, result.reason());
+    }
+
+    /**
+     * A ledger in memory, which can be made to fail.
+     */
+    private static final class MapLedger implements Verifier.Ledger {
+
+        private final Map<String, long[]> accounts = new HashMap<>();
+        /**
+         * An account whose commits fail.
+         */
+        private volatile String failOn;
+
+        @Override
+        public synchronized long balanceOf(@NotNull String account) {
+            return accounts.getOrDefault(account, new long[2])[0];
+        }
+
+        @Override
+        public synchronized long nonceOf(@NotNull String account) {
+            return accounts.getOrDefault(account, new long[2])[1];
+        }
+
+        @Override
+        public synchronized void commit(@NotNull String account, long balance, long nonce) {
+            if(account.equals(failOn)) throw new IllegalStateException("Cannot write " + account);
+            accounts.put(account, new long[] {balance, nonce});
+        }
+
+    }
+
+}
@@ -4,7 +4,7 @@ import net.bucketcoin.contract.Contract;
 
 public class ContractExample implements Contract {
 	
-	public double getGasFee() {
+	public long getGasFee() {
 		return 1;
 	}
 